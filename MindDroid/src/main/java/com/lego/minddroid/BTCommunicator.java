@@ -22,21 +22,35 @@ package com.lego.minddroid;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
-import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.res.Resources;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
+import com.lego.minddroid.lcp.ControlLatency;
+import com.lego.minddroid.lcp.FileInfoReply;
+import com.lego.minddroid.lcp.FileNameCache;
+import com.lego.minddroid.lcp.FirmwareVersionReply;
+import com.lego.minddroid.lcp.LCPFrameReader;
+import com.lego.minddroid.lcp.LCPFrameWriter;
+import com.lego.minddroid.lcp.LCPMessage;
+import com.lego.minddroid.lcp.LCPSendQueue;
+import com.lego.minddroid.lcp.LCPSender;
+import com.lego.minddroid.lcp.MotorCommandSlots;
+import com.lego.minddroid.lcp.NxtTransport;
+import com.lego.minddroid.lcp.OutputStateReply;
+import com.lego.minddroid.lcp.TcpTransport;
+import com.lego.minddroid.lcp.WireTraceRecorder;
+
 /**
  * This class is for talking to a LEGO NXT robot via bluetooth.
  * The communciation to the robot is done via LCP (LEGO communication protocol).
+ * The bytes are transported by a NxtTransport, which can also be a stand-in
+ * brick for testing.
  * Objects of this class can either be run as standalone thread or controlled
  * by the owners, i.e. calling the send/recive methods by themselves.
  */
@@ -45,6 +59,7 @@ public class BTCommunicator extends Thread {
     public static final int MOTOR_B = 1;
     public static final int MOTOR_C = 2;
     public static final int MOTOR_B_ACTION = 40;
+    public static final int MOTOR_SYNC = 41;
     public static final int MOTOR_RESET = 10;
     public static final int DO_BEEP = 51;
     public static final int DO_ACTION = 52;    
@@ -70,22 +85,39 @@ public class BTCommunicator extends Thread {
 
     public static final int NO_DELAY = 0;
 
-    private static final UUID SERIAL_PORT_SERVICE_CLASS_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private static final int SEND_QUEUE_CAPACITY = 64;
+    private static final int DISCONNECT_DELAY = 500;
+    // maximum time to wait for the reply to a request in milliseconds
+    public static final int REPLY_TIMEOUT = 1000;
+
     // this is the only OUI registered by LEGO, see http://standards.ieee.org/regauth/oui/index.shtml
     public static final String OUI_LEGO = "00:16:53";
 
+    private static final String TAG = BTCommunicator.class.getName();
+
     private Resources mResources;
     private BluetoothAdapter btAdapter;
-    private BluetoothSocket nxtBTsocket = null;
+    private NxtTransport nxtTransport = null;
     private OutputStream nxtOutputStream = null;
     private InputStream nxtInputStream = null;
-    private boolean connected = false;
+    private LCPFrameReader frameReader = null;
+    private LCPFrameWriter frameWriter = null;
+    private WireTraceRecorder wireTrace = null;
+    private volatile ControlLatency controlLatency = new ControlLatency();
+    private volatile LCPSender senderThread = null;
+    private volatile WatchdogThread watchdogThread = null;
+    private boolean wakeupPending = false;
+    private long droppedMessages = 0;
+    // running average of the round trip time
+    private volatile long roundTripTimeNanos = 0;
+    private volatile boolean connected = false;
 
     private Handler uiHandler;
     private String mMACaddress;
     private BTConnectable myOwner;
 
-    private byte[] returnMessage;
+    private final LCPReplyCorrelator replyCorrelator = new LCPReplyCorrelator();
+    private final LinkHealthMonitor healthMonitor = new LinkHealthMonitor();
 
     public BTCommunicator(BTConnectable myOwner, Handler uiHandler, BluetoothAdapter btAdapter, Resources resources) {
         this.myOwner = myOwner;
@@ -98,14 +130,138 @@ public class BTCommunicator extends Thread {
         return myHandler;
     }
 
-    public byte[] getReturnMessage() {
-        return returnMessage;
+    /**
+     * @return the number of requests waiting for their reply
+     */
+    public int getPendingReplies() {
+        return replyCorrelator.size();
+    }
+
+    /**
+     * @return the number of LCP frames sent on the current connection
+     */
+    public long getFramesSent() {
+        LCPFrameWriter writer = frameWriter;
+        return writer == null ? 0 : writer.getFramesWritten();
+    }
+
+    /**
+     * @return the number of writes on the OutputStream of the current connection,
+     * several frames can share one write
+     */
+    public long getStreamWrites() {
+        LCPFrameWriter writer = frameWriter;
+        return writer == null ? 0 : writer.getStreamWrites();
+    }
+
+    /**
+     * @return the number of messages rejected because the send queue was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * @return the number of motor speeds replaced by a newer one before they were sent
+     */
+    public long getSupersededMotorCommands() {
+        return motorSlots.getSupersededCommands();
+    }
+
+    /**
+     * @return the number of motor speeds not sent, because the motor already runs with this speed
+     */
+    public long getSuppressedMotorCommands() {
+        return motorSlots.getSuppressedCommands();
+    }
+
+    /**
+     * @return the number of commands waiting to be sent, including one being written
+     */
+    public int getBacklog() {
+        LCPSender sender = senderThread;
+        return sendQueue.size() + motorSlots.getPendingCount() + (sender != null && sender.isWriting() ? 1 : 0);
+    }
+
+    /**
+     * @return the average time of one write on the connection in milliseconds
+     */
+    public int getWriteTime() {
+        LCPSender sender = senderThread;
+        return sender == null ? 0 : (int) (sender.getWriteTime() / 1000000);
+    }
+
+    /**
+     * @return the average time between a request and its reply in milliseconds
+     */
+    public int getRoundTripTime() {
+        return (int) (roundTripTimeNanos / 1000000);
+    }
+
+    /**
+     * @return the round trip time of the given percentile of the last replies in milliseconds
+     * @param percentile the percentile from 0 to 100
+     */
+    public int getRoundTripPercentile(int percentile) {
+        return (int) (healthMonitor.getRoundTripPercentile(percentile) / 1000000);
     }
 
+    /**
+     * @return true, when replies of the robot are slow or missing
+     */
+    public boolean isLinkDegraded() {
+        return healthMonitor.getLinkState(System.nanoTime()) != LinkHealthMonitor.LINK_OK;
+    }
+
+    /**
+     * Configures the health monitoring of the running thread. When nothing arrives within
+     * the dead link budget, the motors are stopped and STATE_RECEIVEERROR is sent.
+     * @param keepAliveInterval time without received messages before a KEEP_ALIVE is sent in milliseconds
+     * @param degradedRoundTrip round trip time in milliseconds, above which the link is degraded
+     * @param deadLinkBudget time without received messages after which the link is dead in milliseconds
+     */
+    public void setLinkHealthParameters(int keepAliveInterval, int degradedRoundTrip, int deadLinkBudget) {
+        healthMonitor.configure(keepAliveInterval, degradedRoundTrip, deadLinkBudget);
+    }
+
+    /**
+     * Sets the address of the robot. Besides bluetooth MAC addresses, addresses
+     * of the form "tcp:host:port" connect to a stand-in brick via TCP.
+     */
     public void setMACAddress(String mMACaddress) {
         this.mMACaddress = mMACaddress;
     }
 
+    /**
+     * @return the address of the robot
+     */
+    public String getMACAddress() {
+        return mMACaddress;
+    }
+
+    /**
+     * Records all frames of the following connections, has to be set before connecting.
+     * @param wireTrace the recorder or null for no recording
+     */
+    public void setWireTrace(WireTraceRecorder wireTrace) {
+        this.wireTrace = wireTrace;
+    }
+
+    /**
+     * Lets the handler and the sender thread report the stages of the control
+     * updates to the given latency tracker, which is fed by the UI as well.
+     */
+    public void setControlLatency(ControlLatency controlLatency) {
+        this.controlLatency = controlLatency;
+        LCPSender sender = senderThread;
+        if (sender != null)
+            sender.setControlLatency(controlLatency);
+    }
+
+    public ControlLatency getControlLatency() {
+        return controlLatency;
+    }
+
     /**
      * @return The current status of the connection
      */            
@@ -128,7 +284,15 @@ public class BTCommunicator extends Thread {
 
         while (connected) {
             try {
-                returnMessage = receiveMessage();
+                byte[] returnMessage = receiveMessage();
+                long now = System.nanoTime();
+                healthMonitor.messageReceived(now);
+                LCPReply reply = replyCorrelator.match(returnMessage);
+                if (reply != null) {
+                    long roundTrip = now - reply.getSendTime();
+                    roundTripTimeNanos = average(roundTripTimeNanos, roundTrip);
+                    healthMonitor.replyReceived(roundTrip, reply.getCommand() == LCPMessage.KEEP_ALIVE);
+                }
                 if ((returnMessage.length >= 2) && ((returnMessage[0] == LCPMessage.REPLY_COMMAND) ||
                     (returnMessage[0] == LCPMessage.DIRECT_COMMAND_NOREPLY)))
                     dispatchMessage(returnMessage);
@@ -143,59 +307,51 @@ public class BTCommunicator extends Thread {
     }
 
     /**
-     * Create a bluetooth connection with SerialPortServiceClass_UUID
-     * @see <a href=
-     *      "http://lejos.sourceforge.net/forum/viewtopic.php?t=1991&highlight=android"
-     *      />
+     * Create a connection to the robot, via bluetooth unless the address is a "tcp:" one.
      * On error the method either sends a message to it's owner or creates an exception in the
      * case of no message handler.
      */
     public void createNXTconnection() throws IOException {
         try {
-            BluetoothSocket nxtBTSocketTemporary;
-            BluetoothDevice nxtDevice = null;
-            nxtDevice = btAdapter.getRemoteDevice(mMACaddress);
-            if (nxtDevice == null) {
-                if (uiHandler == null)
-                    throw new IOException();
-                else {
-                    sendToast(mResources.getString(R.string.no_paired_nxt));
-                    sendState(STATE_CONNECTERROR);
-                    return;
+            NxtTransport transportTemporary = TcpTransport.fromAddress(mMACaddress);
+
+            if (transportTemporary == null) {
+                BluetoothDevice nxtDevice = null;
+                nxtDevice = btAdapter.getRemoteDevice(mMACaddress);
+                if (nxtDevice == null) {
+                    if (uiHandler == null)
+                        throw new IOException();
+                    else {
+                        sendToast(mResources.getString(R.string.no_paired_nxt));
+                        sendState(STATE_CONNECTERROR);
+                        return;
+                    }
                 }
+                transportTemporary = new RfcommTransport(nxtDevice, myOwner.isPairing());
             }
-            nxtBTSocketTemporary = nxtDevice.createRfcommSocketToServiceRecord(SERIAL_PORT_SERVICE_CLASS_UUID);
+
             try {
-                nxtBTSocketTemporary.connect();
+                transportTemporary.connect();
             }
             catch (IOException e) {  
-                if (myOwner.isPairing()) {
-                    if (uiHandler != null) {
-                        sendToast(mResources.getString(R.string.pairing_message));
-                        sendState(STATE_CONNECTERROR_PAIRING);
-                    }
-                    else
-                        throw e;
-                    return;
-                }
+                if (uiHandler == null)
+                    throw e;
 
-                // try another method for connection, this should work on the HTC desire, credits to Michael Biermann
-                try {
-                    Method mMethod = nxtDevice.getClass().getMethod("createRfcommSocket", new Class[] { int.class });
-                    nxtBTSocketTemporary = (BluetoothSocket) mMethod.invoke(nxtDevice, Integer.valueOf(1));            
-                    nxtBTSocketTemporary.connect();
-                }
-                catch (Exception e1){
-                    if (uiHandler == null)
-                        throw new IOException();
-                    else
-                        sendState(STATE_CONNECTERROR);
-                    return;
+                if (myOwner.isPairing()) {
+                    sendToast(mResources.getString(R.string.pairing_message));
+                    sendState(STATE_CONNECTERROR_PAIRING);
                 }
+                else
+                    sendState(STATE_CONNECTERROR);
+                return;
             }
-            nxtBTsocket = nxtBTSocketTemporary;
-            nxtInputStream = nxtBTsocket.getInputStream();
-            nxtOutputStream = nxtBTsocket.getOutputStream();
+            nxtTransport = transportTemporary;
+            nxtInputStream = nxtTransport.getInputStream();
+            frameReader = new LCPFrameReader(nxtInputStream);
+            frameReader.setTrace(wireTrace);
+            nxtOutputStream = nxtTransport.getOutputStream();
+            frameWriter = new LCPFrameWriter(nxtOutputStream);
+            frameWriter.setTrace(wireTrace);
             connected = true;
         } catch (IOException e) {
             if (uiHandler == null)
@@ -208,24 +364,52 @@ public class BTCommunicator extends Thread {
             }
         }
         // everything was OK
-        if (uiHandler != null)
+        if (uiHandler != null) {
+            // all writes are done by a separate thread, so a stalled
+            // connection blocks neither the receiving thread nor the UI
+            LCPSender sender = new LCPSender("BTCommunicator sender", frameWriter, sendQueue, motorSlots, senderListener);
+            sender.setControlLatency(controlLatency);
+            // the link is watched by another thread, which can still close
+            // the connection when the sender is stuck in a write
+            WatchdogThread watchdog = new WatchdogThread();
+            healthMonitor.reset(System.nanoTime());
+            senderThread = sender;
+            watchdogThread = watchdog;
+            sender.start();
+            watchdog.start();
             sendState(STATE_CONNECTED);
+        }
     }
 
     /**
-     * Closes the bluetooth connection. On error the method either sends a message
+     * Closes the connection. On error the method either sends a message
      * to it's owner or creates an exception in the case of no message handler.
      */
-    public void destroyNXTconnection() throws IOException {
+    public synchronized void destroyNXTconnection() throws IOException {
+        LCPSender sender = senderThread;
+        if (sender != null) {
+            senderThread = null;
+            sender.terminate();
+        }
+        WatchdogThread watchdog = watchdogThread;
+        if (watchdog != null) {
+            watchdogThread = null;
+            watchdog.terminate();
+        }
+        replyCorrelator.failAll();
+
         try {
-            if (nxtBTsocket != null) {
+            if (nxtTransport != null) {
                 connected = false;
-                nxtBTsocket.close();
-                nxtBTsocket = null;
+                NxtTransport oldTransport = nxtTransport;
+                nxtTransport = null;
+                oldTransport.close();
             }
 
             nxtInputStream = null;
+            frameReader = null;
             nxtOutputStream = null;
+            frameWriter = null;
 
         } catch (IOException e) {
             if (uiHandler == null)
@@ -236,49 +420,258 @@ public class BTCommunicator extends Thread {
     }
 
     /**
-     * Sends a message on the opened OutputStream
+     * Sends a message on the opened OutputStream. Only for owners calling
+     * the send/receive methods by themselves, the running thread sends
+     * its messages via the sender thread.
      * @param message, the message as a byte array
      */
     public void sendMessage(byte[] message) throws IOException {
-        if (nxtOutputStream == null)
+        if (frameWriter == null)
             throw new IOException();
 
-        // send message length
-        int messageLength = message.length;
-        nxtOutputStream.write(messageLength);
-        nxtOutputStream.write(messageLength >> 8);
-        nxtOutputStream.write(message, 0, message.length);
+        // length and message leave with one write
+        frameWriter.writeFrame(message);
     }  
 
+    /**
+     * Sends the first bytes of the buffer as one message, so the caller
+     * can reuse the buffer for all its messages.
+     * @param message buffer containing the message
+     * @param length the length of the message
+     */
+    public void sendMessage(byte[] message, int length) throws IOException {
+        if (frameWriter == null)
+            throw new IOException();
+
+        frameWriter.appendFrame(message, length);
+        frameWriter.flush();
+    }
+
     /**
      * Receives a message on the opened InputStream
      * @return the message
      */                
     public byte[] receiveMessage() throws IOException {
-        if (nxtInputStream == null)
+        if (frameReader == null)
+            throw new IOException();
+
+        return frameReader.readFrame();
+    }    
+
+    /**
+     * Receives a message on the opened InputStream without allocating
+     * @param message buffer for the message, should hold LCPFrameReader.MAX_FRAME_LENGTH bytes
+     * @return the length of the message
+     */                
+    public int receiveMessage(byte[] message) throws IOException {
+        if (frameReader == null)
             throw new IOException();
 
-        int length = nxtInputStream.read();
-        length = (nxtInputStream.read() << 8) + length;
-        byte[] returnMessage = new byte[length];
-        nxtInputStream.read(returnMessage);
-        return returnMessage;
+        return frameReader.readFrame(message);
     }    
 
     /**
-     * Sends a message on the opened OutputStream. In case of 
-     * an error the state is sent to the handler.
+     * Queues a message for the sender thread. All messages queued while
+     * the handler works off its pending commands are sent together with
+     * a single write.
      * @param message, the message as a byte array
+     * @return false, when the message couldn't be queued
      */
-    private void sendMessageAndState(byte[] message) {
-        if (nxtOutputStream == null)
+    private boolean sendMessageAndState(byte[] message) {
+        if (senderThread == null)
+            return false;
+
+        if (!sendQueue.offer(message)) {
+            droppedMessages++;
+            return false;
+        }
+
+        requestWakeup();
+        return true;
+    }
+
+    /**
+     * Puts the speed into the slot of the motor, where it replaces
+     * an older speed not sent yet.
+     */
+    private void sendMotorSpeed(int motor, int speed) {
+        if (senderThread == null)
             return;
 
-        try {
-            sendMessage(message);
+        motorSlots.put(motor, speed);
+        requestWakeup();
+    }
+
+    private void requestWakeup() {
+        if (!wakeupPending) {
+            // runs after the commands already waiting in the queue
+            wakeupPending = true;
+            myHandler.post(wakeupRunnable);
         }
-        catch (IOException e) {
-            sendState(STATE_SENDERROR);
+    }
+
+    /**
+     * Sends a request to the robot. Several requests can be in flight, each
+     * reply is matched to its request by the command byte and the order.
+     * Has to be called from the thread of the handler of this object.
+     * @param message the request, DIRECT_COMMAND_REPLY or SYSTEM_COMMAND_REPLY
+     * @param timeout maximum time to wait for the reply in milliseconds
+     * @return the future completed with the reply message
+     */
+    public LCPReply request(byte[] message, long timeout) {
+        LCPReply reply = replyCorrelator.register(message[1], timeout);
+        if (!sendMessageAndState(message))
+            reply.cancel(false);
+        else {
+            // the deadline of the request may come before the next check
+            WatchdogThread watchdog = watchdogThread;
+            if (watchdog != null)
+                LockSupport.unpark(watchdog);
+        }
+        return reply;
+    }
+
+    private void sendRequest(byte[] message) {
+        request(message, REPLY_TIMEOUT);
+    }
+
+    /**
+     * Lets the sender thread write all queued messages.
+     */
+    private void wakeupSender() {
+        wakeupPending = false;
+        LCPSender sender = senderThread;
+        if (sender != null)
+            sender.wakeup();
+    }
+
+    private final Runnable wakeupRunnable = new Runnable() {
+        @Override
+        public void run() {
+            wakeupSender();
+        }
+    };
+
+    private final LCPSendQueue sendQueue = new LCPSendQueue(SEND_QUEUE_CAPACITY);
+
+    private final MotorCommandSlots motorSlots = new MotorCommandSlots();
+
+    /**
+     * Reports the end of the sender thread.
+     */
+    private final LCPSender.Listener senderListener = new LCPSender.Listener() {
+        @Override
+        public void sendFailed(IOException e) {
+            // don't inform the user when connection is already closed
+            if (connected)
+                sendState(STATE_SENDERROR);
+        }
+
+        @Override
+        public void disconnectRequested() {
+            // give the robot some time for the last messages
+            waitSomeTime(DISCONNECT_DELAY);
+            try {
+                destroyNXTconnection();
+            }
+            catch (IOException e) {
+                // there's a handler, so no exception is thrown
+            }
+        }
+    };
+
+    /**
+     * Expires the requests without reply and watches the health of the link.
+     * When nothing was received for some time, a KEEP_ALIVE is sent. When the
+     * link is dead, the sender gets some time to stop the motors, then the user
+     * is informed and the connection is closed, which also ends a write stalled
+     * on the dead link.
+     */
+    private class WatchdogThread extends Thread {
+
+        private volatile boolean running = true;
+        private LCPReply keepAliveReply = null;
+        private int lastLinkState = LinkHealthMonitor.LINK_OK;
+
+        WatchdogThread() {
+            super("BTCommunicator watchdog");
+        }
+
+        void terminate() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long now = System.nanoTime();
+                long wakeup = healthMonitor.getNextCheck(now);
+                long deadline = replyCorrelator.nextDeadline();
+                if (deadline != Long.MAX_VALUE && deadline - wakeup < 0)
+                    wakeup = deadline;
+                LockSupport.parkNanos(this, wakeup - now);
+                if (!running)
+                    return;
+
+                int expired = replyCorrelator.expire(System.nanoTime());
+                if (expired > 0)
+                    Log.w(TAG, expired + " request(s) without reply");
+
+                if (!checkLinkHealth())
+                    return;
+            }
+        }
+
+        /**
+         * Requests a KEEP_ALIVE when nothing was received for some time. When the link
+         * is dead, the motors are stopped and the connection is closed.
+         * @return false, when the link is dead
+         */
+        private boolean checkLinkHealth() {
+            long now = System.nanoTime();
+            if (keepAliveReply != null && keepAliveReply.isDone()) {
+                if (keepAliveReply.hasFailed())
+                    healthMonitor.keepAliveMissed();
+                keepAliveReply = null;
+            }
+
+            int linkState = healthMonitor.getLinkState(now);
+            if (linkState != lastLinkState) {
+                Log.w(TAG, "link state " + linkState + ", 90% round trip " + getRoundTripPercentile(90) + " ms");
+                lastLinkState = linkState;
+            }
+
+            LCPSender sender = senderThread;
+            if (linkState == LinkHealthMonitor.LINK_DEAD) {
+                // stop the motors before the owner gets to reconnect
+                if (sender != null) {
+                    sender.requestStop();
+                    try {
+                        sender.join(DISCONNECT_DELAY);
+                    }
+                    catch (InterruptedException e) {
+                        // closing the connection ends the write anyway
+                    }
+                }
+                // don't inform the user when connection is already closed
+                if (connected)
+                    sendState(STATE_RECEIVEERROR);
+                try {
+                    destroyNXTconnection();
+                }
+                catch (IOException e) {
+                    // there's a handler, so no exception is thrown
+                }
+                return false;
+            }
+
+            if (keepAliveReply == null && sender != null && healthMonitor.isKeepAliveDue(now)) {
+                keepAliveReply = replyCorrelator.register(LCPMessage.KEEP_ALIVE, healthMonitor.getKeepAliveTimeout());
+                healthMonitor.keepAliveSent(now);
+                sender.requestKeepAlive();
+            }
+            return true;
         }
     }
 
@@ -287,25 +680,25 @@ public class BTCommunicator extends Thread {
 
             case LCPMessage.GET_OUTPUT_STATE:
 
-                if (message.length >= 25)
-                    sendState(MOTOR_STATE);
+                if (message.length >= OutputStateReply.MESSAGE_LENGTH)
+                    sendState(MOTOR_STATE, message);
 
                 break;
 
             case LCPMessage.GET_FIRMWARE_VERSION:
 
-                if (message.length >= 7)
-                    sendState(FIRMWARE_VERSION);
+                if (message.length >= FirmwareVersionReply.MESSAGE_LENGTH)
+                    sendState(FIRMWARE_VERSION, message);
 
                 break;
 
             case LCPMessage.FIND_FIRST:
             case LCPMessage.FIND_NEXT:
 
-                if (message.length >= 28) {
+                if (message.length >= FileInfoReply.MESSAGE_LENGTH) {
                     // Success
                     if (message[2] == 0)
-                        sendState(FIND_FILES);
+                        sendState(FIND_FILES, message);
                 }
 
                 break;
@@ -313,7 +706,7 @@ public class BTCommunicator extends Thread {
             case LCPMessage.GET_CURRENT_PROGRAM_NAME:
 
                 if (message.length >= 23) {
-                    sendState(PROGRAM_NAME);
+                    sendState(PROGRAM_NAME, message);
                 }
                 
                 break;
@@ -321,12 +714,12 @@ public class BTCommunicator extends Thread {
             case LCPMessage.SAY_TEXT:
                 
                 if (message.length == 22) {
-                    sendState(SAY_TEXT);
+                    sendState(SAY_TEXT, message);
                 }
                 
             case LCPMessage.VIBRATE_PHONE:
                 if (message.length == 3) {
-                    sendState(VIBRATE_PHONE);
+                    sendState(VIBRATE_PHONE, message);
                 }                                
         }
     }
@@ -334,7 +727,6 @@ public class BTCommunicator extends Thread {
     private void doBeep(int frequency, int duration) {
         byte[] message = LCPMessage.getBeepMessage(frequency, duration);
         sendMessageAndState(message);
-        waitSomeTime(20);
     }
     
     private void doAction(int actionNr) {
@@ -343,6 +735,11 @@ public class BTCommunicator extends Thread {
     }
 
     private void startProgram(String programName) {
+        if (!FileNameCache.isValid(programName)) {
+            Log.w(TAG, "invalid program name " + programName);
+            return;
+        }
+
         byte[] message = LCPMessage.getStartProgramMessage(programName);
         sendMessageAndState(message);
     }
@@ -354,7 +751,7 @@ public class BTCommunicator extends Thread {
     
     private void getProgramName() {
         byte[] message = LCPMessage.getProgramNameMessage();
-        sendMessageAndState(message);
+        sendRequest(message);
     }
     
     private void changeMotorSpeed(int motor, int speed) {
@@ -364,8 +761,27 @@ public class BTCommunicator extends Thread {
         else if (speed < -100)
             speed = -100;
 
-        byte[] message = LCPMessage.getMotorMessage(motor, speed);
-        sendMessageAndState(message);
+        // queued before the slot is filled, so the sender can't write the
+        // command before the sample is followed
+        controlLatency.commandQueued(System.nanoTime());
+        sendMotorSpeed(motor, speed);
+    }
+
+    /**
+     * Lets the drive motors B and C run synchronized.
+     * @param turnRatio see LCPMessage.getSyncMotorMessage()
+     */
+    private void changeSyncSpeed(int speed, int turnRatio) {
+        if (senderThread == null)
+            return;
+
+        controlLatency.commandQueued(System.nanoTime());
+        motorSlots.putSync(limit(speed, 100), limit(turnRatio, 100));
+        requestWakeup();
+    }
+
+    private static int limit(int value, int maximum) {
+        return Math.max(-maximum, Math.min(maximum, value));
     }
 
     private void rotateTo(int motor, int end) {
@@ -380,17 +796,24 @@ public class BTCommunicator extends Thread {
 
     private void readMotorState(int motor) {
         byte[] message = LCPMessage.getOutputStateMessage(motor);
-        sendMessageAndState(message);
+        sendRequest(message);
     }
 
     private void getFirmwareVersion() {
         byte[] message = LCPMessage.getFirmwareVersionMessage();
-        sendMessageAndState(message);
+        sendRequest(message);
     }
 
     private void findFiles(boolean findFirst, int handle) {
         byte[] message = LCPMessage.getFindFilesMessage(findFirst, handle, "*.*");
-        sendMessageAndState(message);
+        sendRequest(message);
+    }
+
+    /**
+     * @return the running average with a new sample weighted by 1/8
+     */
+    private static long average(long average, long sample) {
+        return average == 0 ? sample : average + (sample - average) / 8;
     }
 
     private void waitSomeTime(int millis) {
@@ -402,22 +825,20 @@ public class BTCommunicator extends Thread {
     }
 
     private void sendToast(String toastText) {
-        Bundle myBundle = new Bundle();
-        myBundle.putInt("message", DISPLAY_TOAST);
-        myBundle.putString("toastText", toastText);
-        sendBundle(myBundle);
+        sendState(DISPLAY_TOAST, toastText);
     }
 
     private void sendState(int message) {
-        Bundle myBundle = new Bundle();
-        myBundle.putInt("message", message);
-        sendBundle(myBundle);
+        sendState(message, null);
     }
 
-    private void sendBundle(Bundle myBundle) {
-        Message myMessage = myHandler.obtainMessage();
-        myMessage.setData(myBundle);
-        uiHandler.sendMessage(myMessage);
+    /**
+     * Sends the state to the UI in a recycled message: the state is the
+     * what field, obj carries the message received from the robot (every
+     * state has its own copy of it) or the text of a toast.
+     */
+    private void sendState(int message, Object returnMessage) {
+        uiHandler.obtainMessage(message, returnMessage).sendToTarget();
     }
 
     // receive messages from the UI
@@ -425,22 +846,26 @@ public class BTCommunicator extends Thread {
         @Override
         public void handleMessage(Message myMessage) {
 
+            // the command is the what field, its parameters are arg1 and arg2
             int message;
 
-            switch (message = myMessage.getData().getInt("message")) {
+            switch (message = myMessage.what) {
                 case MOTOR_A:
                 case MOTOR_B:
                 case MOTOR_C:
-                    changeMotorSpeed(message, myMessage.getData().getInt("value1"));
+                    changeMotorSpeed(message, myMessage.arg1);
+                    break;
+                case MOTOR_SYNC:
+                    changeSyncSpeed(myMessage.arg1, myMessage.arg2);
                     break;
                 case MOTOR_B_ACTION:
-                    rotateTo(MOTOR_B, myMessage.getData().getInt("value1"));
+                    rotateTo(MOTOR_B, myMessage.arg1);
                     break;
                 case MOTOR_RESET:
-                    reset(myMessage.getData().getInt("value1"));
+                    reset(myMessage.arg1);
                     break;
                 case START_PROGRAM:
-                    startProgram(myMessage.getData().getString("name"));
+                    startProgram((String) myMessage.obj);
                     break;
                 case STOP_PROGRAM:
                     stopProgram();
@@ -449,30 +874,34 @@ public class BTCommunicator extends Thread {
                     getProgramName();
                     break;    
                 case DO_BEEP:
-                    doBeep(myMessage.getData().getInt("value1"), myMessage.getData().getInt("value2"));
+                    doBeep(myMessage.arg1, myMessage.arg2);
                     break;
                 case DO_ACTION:
-                    doAction(myMessage.getData().getInt("value1"));
+                    doAction(myMessage.arg1);
                     break;
                 case READ_MOTOR_STATE:
-                    readMotorState(myMessage.getData().getInt("value1"));
+                    readMotorState(myMessage.arg1);
                     break;
                 case GET_FIRMWARE_VERSION:
                     getFirmwareVersion();
                     break;
                 case FIND_FILES:
-                    findFiles(myMessage.getData().getInt("value1") == 0, myMessage.getData().getInt("value2"));
+                    findFiles(myMessage.arg1 == 0, myMessage.arg2);
                     break;
                 case DISCONNECT:
                     // send stop messages before closing
                     changeMotorSpeed(MOTOR_A, 0);
                     changeMotorSpeed(MOTOR_B, 0);
                     changeMotorSpeed(MOTOR_C, 0);
-                    waitSomeTime(500);
-                    try {
-                        destroyNXTconnection();
+                    // the sender thread closes the connection afterwards
+                    if (senderThread == null || !sendQueue.offer(LCPSender.DISCONNECT_REQUEST)) {
+                        try {
+                            destroyNXTconnection();
+                        }
+                        catch (IOException e) { }
                     }
-                    catch (IOException e) { }
+                    else
+                        wakeupSender();
                     break;
             }
         }
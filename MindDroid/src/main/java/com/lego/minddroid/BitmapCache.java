@@ -0,0 +1,103 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+/**
+ * Process wide cache of bitmaps decoded from resources at the size they're
+ * drawn with. A resource is decoded with the largest inSampleSize that
+ * keeps it at least as big as requested and then scaled to the exact size,
+ * so a full resolution image is never held in memory. The cache is bounded
+ * by the bytes of the bitmaps, the least recently used ones are dropped.
+ *
+ * The bitmaps are shared, they must neither be modified nor recycled.
+ */
+class BitmapCache {
+
+    // an eighth of the heap available to the application
+    private static final int MAX_BYTES = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+
+    private static final LruCache<String, Bitmap> bitmaps = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    // width and height of the resources in pixels, guarded by itself
+    private static final SparseArray<int[]> sizes = new SparseArray<>();
+
+    private BitmapCache() {
+    }
+
+    /**
+     * @return width and height of the image in pixels, without scaling for the screen density
+     */
+    static int[] getSize(Resources resources, int resourceId) {
+        synchronized (sizes) {
+            int[] size = sizes.get(resourceId);
+            if (size == null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                options.inScaled = false;
+                BitmapFactory.decodeResource(resources, resourceId, options);
+                size = new int[] { options.outWidth, options.outHeight };
+                sizes.put(resourceId, size);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Gets the image scaled to the given size, decoding it when it's not cached.
+     */
+    static Bitmap get(Resources resources, int resourceId, int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        String key = resourceId + ":" + width + "x" + height;
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null)
+            return bitmap;
+
+        int[] size = getSize(resources, resourceId);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        options.inSampleSize = 1;
+        while (size[0] / (options.inSampleSize * 2) >= width && size[1] / (options.inSampleSize * 2) >= height)
+            options.inSampleSize *= 2;
+
+        Bitmap decoded = BitmapFactory.decodeResource(resources, resourceId, options);
+        if (decoded.getWidth() == width && decoded.getHeight() == height) {
+            bitmap = decoded;
+        } else {
+            bitmap = Bitmap.createScaledBitmap(decoded, width, height, true);
+            if (bitmap != decoded)
+                decoded.recycle();
+        }
+        bitmaps.put(key, bitmap);
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+/**
+ * Adapts the interval between two motor updates to the connection.
+ * When the commands of the last update are still waiting, the interval
+ * is doubled. When the link could cope with more updates, the interval
+ * shrinks step by step, so fast links get a fast reacting robot and slow
+ * links don't pile up stale commands.
+ */
+class ControlRateController {
+
+    static final int MIN_INTERVAL = 50;
+    static final int MAX_INTERVAL = 500;
+    static final int INITIAL_INTERVAL = 100;
+
+    static final int INTERVAL_STEP = 10;
+    // the link should be busy for at most a third of the interval
+    private static final int LINK_HEADROOM = 3;
+
+    private int interval = INITIAL_INTERVAL;
+
+    /**
+     * Calculates the interval for the next motor update.
+     * @param backlog the number of commands still waiting to be sent
+     * @param linkTime the time in milliseconds the link needs for one update
+     * @return the interval in milliseconds
+     */
+    synchronized int update(int backlog, int linkTime) {
+        if (backlog > 0)
+            interval = Math.min(MAX_INTERVAL, interval * 2);
+        else if (linkTime * LINK_HEADROOM > interval)
+            interval = Math.min(MAX_INTERVAL, interval + INTERVAL_STEP);
+        else if (linkTime * LINK_HEADROOM < interval - INTERVAL_STEP)
+            interval = Math.max(MIN_INTERVAL, interval - INTERVAL_STEP);
+
+        return interval;
+    }
+
+    /**
+     * @return the current interval between two motor updates in milliseconds
+     */
+    synchronized int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Starts again with the initial interval, e.g. for a new connection.
+     */
+    synchronized void reset() {
+        interval = INITIAL_INTERVAL;
+    }
+
+}
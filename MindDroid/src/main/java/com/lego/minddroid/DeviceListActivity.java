@@ -36,8 +36,12 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
+
+import com.lego.minddroid.lcp.TcpTransport;
 
 import java.util.Set;
 
@@ -45,7 +49,8 @@ import java.util.Set;
  * This Activity appears as a dialog. It lists any paired devices and
  * devices detected in the area after discovery. When a device is chosen
  * by the user, the MAC address of the device is sent back to the parent
- * Activity in the result Intent.
+ * Activity in the result Intent. Instead of a robot, the address of a
+ * simulated NXT ("tcp:host:port") can be entered.
  */
 public class DeviceListActivity extends Activity {
     static final String PAIRING = "pairing";
@@ -76,6 +81,20 @@ public class DeviceListActivity extends Activity {
             v.setVisibility(View.GONE);
         });
 
+        // Initialize the field and the button for the address of a simulated NXT
+        final EditText standInAddress = findViewById(R.id.stand_in_address);
+        Button standInButton = findViewById(R.id.button_stand_in);
+        standInButton.setOnClickListener(v -> {
+            String address = standInAddress.getText().toString().trim();
+            if (TcpTransport.fromAddress(address) == null) {
+                Toast.makeText(this, R.string.invalid_stand_in_address, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            mBtAdapter.cancelDiscovery();
+            returnDevice(address, address, false);
+        });
+
         // Initialize array adapters. One for already paired devices and
         // one for newly discovered devices
         ArrayAdapter<String> mPairedDevicesArrayAdapter = new ArrayAdapter<>(this, R.layout.device_name);
@@ -172,19 +191,23 @@ public class DeviceListActivity extends Activity {
             mBtAdapter.cancelDiscovery();
             // Get the device MAC address, this is the text after the last '-' character
             String address = info.substring(info.lastIndexOf('-') + 1);
-            // Create the result Intent and include the infos
-            Intent intent = new Intent();
-            Bundle data = new Bundle();
-            data.putString(DEVICE_NAME_AND_ADDRESS, info);
-            data.putString(EXTRA_DEVICE_ADDRESS, address);
-            data.putBoolean(PAIRING, av.getId() == R.id.new_devices);
-            intent.putExtras(data);
-            // Set result and finish this Activity
-            setResult(RESULT_OK, intent);
-            finish();
+            returnDevice(info, address, av.getId() == R.id.new_devices);
         }
     };
 
+    private void returnDevice(String info, String address, boolean pairing) {
+        // Create the result Intent and include the infos
+        Intent intent = new Intent();
+        Bundle data = new Bundle();
+        data.putString(DEVICE_NAME_AND_ADDRESS, info);
+        data.putString(EXTRA_DEVICE_ADDRESS, address);
+        data.putBoolean(PAIRING, pairing);
+        intent.putExtras(data);
+        // Set result and finish this Activity
+        setResult(RESULT_OK, intent);
+        finish();
+    }
+
     // The BroadcastReceiver that listens for discovered devices and
     // changes the title when discovery is finished
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -22,23 +22,24 @@ package com.lego.minddroid;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Vibrator;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.util.List;
+import com.lego.minddroid.lcp.ControlScheduler;
+import com.lego.minddroid.lcp.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
 
 public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
@@ -63,6 +64,8 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
          */
         Vibrator mHapticFeedback;
 
+        private final Resources mResources;
+
         /** The drawable to use as the background of the animation canvas */
         private Bitmap mBackgroundImage;
 
@@ -78,6 +81,35 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
         private Bitmap mActionDownButton;
 
+        /**
+         * background, action button and goal composited once per surface size,
+         * one layer for each state
+         */
+        private static final int LAYER_DISCONNECTED = 0;
+        private static final int LAYER_BUTTON_UP = 1;
+        private static final int LAYER_BUTTON_DOWN = 2;
+        private final Bitmap[] mStaticLayers = new Bitmap[3];
+
+        /** key of the frame on the surface, see updateFrameState */
+        private static final long FRAME_DISCONNECTED = -1;
+        private static final long FRAME_NONE = -2;
+        private long mFrameKey = FRAME_NONE;
+
+        /** icon position rounded to ICON_QUANTUM pixels */
+        private static final int ICON_QUANTUM = 2;
+        private int mIconX;
+        private int mIconY;
+
+        /** set by wakeUp, guarded by mWakeUp */
+        private final Object mWakeUp = new Object();
+        private boolean mChanged = true;
+
+        /** check the frame again after REDRAW_SCHED */
+        private boolean mRedrawPending = false;
+
+        /** time to draw and post a frame */
+        private final LatencyHistogram mFrameTime = new LatencyHistogram();
+
         /**
          * Current height of the surface/canvas.
          *
@@ -117,11 +149,6 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
          */
         long mElapsedSinceDraw = 0;
 
-        /**
-         * track how long since we redrew screen
-         */
-        long mElapsedSinceNXTCommand = 0;
-
         /**
          * count how many times we took tilt readings in 100ms so we can average
          * position
@@ -138,36 +165,18 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         /** was action button just pressed */
         boolean mActionPressed = false;
 
-        /** buffers to hold tilt readings for averaging */
-        float mNumAcX;
-        float mNumAcY;
-
-        /** digital filtering variables **/
-        private float xX0 = 0;
-        private float xX1 = 0;
-        private float xY0 = 0;
-        private float xY1 = 0;
-
-        private float yX0 = 0;
-        private float yX1 = 0;
-        private float yY0 = 0;
-        private float yY1 = 0;
         boolean longPressCancel;
 
         GameThread(SurfaceHolder surfaceHolder, Context context, Vibrator vibrator, Handler handler) {
             // get handles to some important objects
             mHapticFeedback = vibrator;
             mSurfaceHolder = surfaceHolder;
-            Resources res = context.getResources();
+            mResources = context.getResources();
             mIconOrange = context.getResources().getDrawable(R.drawable.orange);
-            // load background image as a Bitmap instead of a Drawable b/c
-            // we don't need to transform it and it's faster to draw this way
             mIconWhite = context.getResources().getDrawable(R.drawable.white);
-            mTarget = BitmapFactory.decodeResource(res, R.drawable.target_no_orange_dot);
-            mTargetInactive = BitmapFactory.decodeResource(res, R.drawable.target);
-            mActionButton = BitmapFactory.decodeResource(res, R.drawable.action_btn_up);
-            mActionDownButton = BitmapFactory.decodeResource(res, R.drawable.action_btn_down);
-            mBackgroundImage = BitmapFactory.decodeResource(res, R.drawable.background_2);
+            // load the bitmaps for the last surface size, a recreated surface
+            // usually has the same one and gets them from the cache
+            setSurfaceSize(mSurfaceWidth, mSurfaceHeight);
         }
 
         private int calcGrowAdjust(float mX2, float mY2) {
@@ -219,87 +228,105 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         }
 
         /**
-         * Draws move indicator, button and background to the provided Canvas.
+         * Updates goal state, size, position and pulse of the icon for the next
+         * frame and returns a key of everything the frame shows. Frames with
+         * the same key look the same, so they needn't be drawn again.
          */
-        private void doDraw(Canvas mCanvas) {
+        private long updateFrameState() {
 
             if (!mActivity.isConnected()) {
+                return FRAME_DISCONNECTED;
+            }
 
-                // draw the background
-                mCanvas.drawBitmap(mBackgroundImage, 0, 0, null);
-                //draw pressed action button
-                mCanvas.drawBitmap(mActionDownButton, 0, mCanvasHeight - mActionButton.getHeight(), null);
-                //draw icon in goal
-                // draw the goal
-                mCanvas.drawBitmap(mTargetInactive, (mCanvasWidth - mTarget.getWidth()) / 2, ((mCanvasHeight - mActionButton.getHeight()) / 2)
-                        - (mTarget.getHeight() / 2), null);
+            if (isInGoal()) { // icon is in goal
+                mInGoal = true;
+                mGrowAdjust = calcGrowAdjust(mX, mY);
             } else {
-
-                // Draw the background image. Operations on the Canvas accumulate
-                if (thread.isInGoal()) { // icon is in goal
-                    mInGoal = true;
-                    mGrowAdjust = calcGrowAdjust(mX, mY);
-                } else {
-                    mGrowAdjust = ICON_MAX_SIZE;
-                    if (mInGoal) {// was in goal before
-                        mInGoal = false;
-                        vibrate();
-                    }
+                mGrowAdjust = ICON_MAX_SIZE;
+                if (mInGoal) {// was in goal before
+                    mInGoal = false;
+                    vibrate();
                 }
 
-                // draw the background
-                mCanvas.drawBitmap(mBackgroundImage, 0, 0, null);
+                // boundary checking, don't want the move_icon going off-screen.
+                if (mX + ICON_MAX_SIZE / 2 >= mCanvasWidth) {// set at outer edge
 
-                // draw the action button
-                mCanvas.drawBitmap(mActionPressed ? mActionDownButton : mActionButton, 0, mCanvasHeight - mActionButton.getHeight(), null);
-                mActionPressed = false;
-
-                // draw the goal
-                mCanvas.drawBitmap(mTarget, (mCanvasWidth - mTarget.getWidth()) / 2,
-                        ((mCanvasHeight - mActionButton.getHeight()) / 2) - (mTarget.getHeight() / 2), null);
+                    mX = mCanvasWidth - (ICON_MAX_SIZE / 2);
+                } else if (mX - (ICON_MAX_SIZE / 2) < 0) {
+                    mX = ICON_MAX_SIZE / 2;
+                }
 
-                // update the icon location and draw (or blink) it
-                if (mInGoal) {
+                // boundary checking, don't want the move_icon rolling
+                // off-screen.
+                if (mY + ICON_MAX_SIZE / 2 >= (mCanvasHeight - mActionButton.getHeight())) {// set at outer edge
 
-                    mIconOrange.setBounds((int) mX - (mGrowAdjust / 2), (int) mY - ((mGrowAdjust / 2)), ((int) mX + (mGrowAdjust / 2)), (int) mY
-                            + (mGrowAdjust / 2));
-                    mIconOrange.draw(mCanvas);
+                    mY = mCanvasHeight - mActionButton.getHeight() - ICON_MAX_SIZE / 2;
+                } else if (mY - ICON_MAX_SIZE / 2 < 0) {
+                    mY = ICON_MAX_SIZE / 2;
+                }
 
-                } else {
+                if (mLastTime > mNextPulse) {
 
-                    // boundary checking, don't want the move_icon going off-screen.
-                    if (mX + ICON_MAX_SIZE / 2 >= mCanvasWidth) {// set at outer edge
+                    mPulsingTiltIcon = mPulsingTiltIcon == mIconOrange ? mIconWhite : mIconOrange;
 
-                        mX = mCanvasWidth - (ICON_MAX_SIZE / 2);
-                    } else if (mX - (ICON_MAX_SIZE / 2) < 0) {
-                        mX = ICON_MAX_SIZE / 2;
-                    }
+                    mNextPulse = mPulsingTiltIcon == mIconOrange ? mLastTime + calcNextPulse() : mLastTime + 90;
+                }
+            }
 
-                    // boundary checking, don't want the move_icon rolling
-                    // off-screen.
-                    if (mY + ICON_MAX_SIZE / 2 >= (mCanvasHeight - mActionButton.getHeight())) {// set at outer edge
+            // sensor noise below the quantum doesn't move the icon
+            mIconX = Math.round(mX / ICON_QUANTUM) * ICON_QUANTUM;
+            mIconY = Math.round(mY / ICON_QUANTUM) * ICON_QUANTUM;
 
-                        mY = mCanvasHeight - mActionButton.getHeight() - ICON_MAX_SIZE / 2;
-                    } else if (mY - ICON_MAX_SIZE / 2 < 0) {
-                        mY = ICON_MAX_SIZE / 2;
-                    }
+            Drawable icon = mInGoal ? mIconOrange : mPulsingTiltIcon;
+            return (mIconX & 0xffffL) | (mIconY & 0xffffL) << 16 | (mGrowAdjust & 0xfffL) << 32
+                    | (icon == mIconWhite ? 1L : 0L) << 44 | (mActionPressed ? 1L : 0L) << 45;
+        }
 
-                    if (mLastTime > mNextPulse) {
+        /**
+         * Draws move indicator, button and background to the provided Canvas.
+         */
+        private void doDraw(Canvas mCanvas) {
 
-                        mPulsingTiltIcon = mPulsingTiltIcon == mIconOrange ? mIconWhite : mIconOrange;
+            if (mFrameKey == FRAME_DISCONNECTED) {
 
-                        mNextPulse = mPulsingTiltIcon == mIconOrange ? mLastTime + calcNextPulse() : mLastTime + 90;
-                    }
+                // background, pressed action button and inactive goal
+                mCanvas.drawBitmap(getStaticLayer(LAYER_DISCONNECTED), 0, 0, null);
+            } else {
 
-                    mPulsingTiltIcon.setBounds((int) mX - (mGrowAdjust / 2), (int) mY - (mGrowAdjust / 2), ((int) mX + mGrowAdjust / 2),
-                            ((int) mY + mGrowAdjust / 2));
-                    mPulsingTiltIcon.draw(mCanvas);
+                // draw the background, the action button and the goal
+                mCanvas.drawBitmap(getStaticLayer(mActionPressed ? LAYER_BUTTON_DOWN : LAYER_BUTTON_UP), 0, 0, null);
+                mActionPressed = false;
 
-                }
+                // draw (or blink) the icon
+                Drawable icon = mInGoal ? mIconOrange : mPulsingTiltIcon;
+                icon.setBounds(mIconX - (mGrowAdjust / 2), mIconY - (mGrowAdjust / 2), mIconX + (mGrowAdjust / 2),
+                        mIconY + (mGrowAdjust / 2));
+                icon.draw(mCanvas);
             }
 
         }
 
+        /**
+         * Composites the static parts of a frame into a bitmap the size of the
+         * surface, it's kept until the size changes.
+         *
+         * @param layer one of the LAYER_* constants
+         */
+        private Bitmap getStaticLayer(int layer) {
+            Bitmap bitmap = mStaticLayers[layer];
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(mCanvasWidth, mCanvasHeight, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+                canvas.drawBitmap(mBackgroundImage, 0, 0, null);
+                canvas.drawBitmap(layer == LAYER_BUTTON_UP ? mActionButton : mActionDownButton, 0, mCanvasHeight - mActionButton.getHeight(), null);
+                canvas.drawBitmap(layer == LAYER_DISCONNECTED ? mTargetInactive : mTarget, (mCanvasWidth - mTarget.getWidth()) / 2,
+                        ((mCanvasHeight - mActionButton.getHeight()) / 2) - (mTarget.getHeight() / 2), null);
+                bitmap.prepareToDraw();
+                mStaticLayers[layer] = bitmap;
+            }
+            return bitmap;
+        }
+
         /**
          * Starts the game, setting parameters for the current difficulty.
          */
@@ -350,27 +377,70 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
             //	Log.d(TAG, "--run--");
             while (mRun) {
 
-                // sleep some time
-                try {
-                    Thread.sleep(30);
-                } catch (InterruptedException ignored) {
-                }
+                // sleep until something changes
+                waitForChange();
 
                 updateTime();
-                updateMoveIndicator(mAccelX, mAccelY);
+                updateMoveIndicator(mNumAcX, mNumAcY);
                 doActionButtonFeedback();
+                // the motors are updated by mControlScheduler
+
                 // is it time to update the screen?
                 if (mElapsedSinceDraw > REDRAW_SCHED) {
 
-                    //is it time to update motor movement?
-                    if (mElapsedSinceNXTCommand > MINDdroid.UPDATE_TIME) {
-                        //calculate and send command to move motors
-                        doMotorMovement(-mNumAcY, -mNumAcX);
+                    mRedrawPending = false;
+                    long frameKey;
+                    synchronized (mSurfaceHolder) {
+                        frameKey = updateFrameState();
+                    }
+                    if (frameKey != mFrameKey) {
+                        mFrameKey = frameKey;
+                        lockCanvasAndDraw();
+                        // e.g. the pressed action button is shown for one frame only
+                        mRedrawPending = true;
                     }
+                } else {
+                    mRedrawPending = true;
+                }
+            }
+            if (mFrameTime.getCount() > 0)
+                Log.i(TAG, "frame time: " + mFrameTime);
+        }
 
-                    lockCanvasAndDraw();
+        /**
+         * Signals a change to the screen, e.g. a new sensor value or a touch.
+         */
+        public void wakeUp() {
+            synchronized (mWakeUp) {
+                mChanged = true;
+                mWakeUp.notifyAll();
+            }
+        }
+
+        /**
+         * Waits for wakeUp or the next change which is only a matter of time:
+         * a pending redraw, the pulse of the icon or the long press feedback.
+         */
+        private void waitForChange() {
+            long now = System.currentTimeMillis();
+            long timeout = Long.MAX_VALUE;
+            if (mRedrawPending)
+                timeout = REDRAW_SCHED + 1 - mElapsedSinceDraw;
+            if (mActivity.isConnected() && !mInGoal) {
+                // a due pulse waits for the next frame, so don't spin until then
+                long pulse = Math.max(mNextPulse, mLastTime - mElapsedSinceDraw + REDRAW_SCHED);
+                timeout = Math.min(timeout, pulse + 1 - now);
+            }
+            if (!longPressCancel)
+                timeout = Math.min(timeout, mTimeActionDown + SHORT_PRESS_MAX_DURATION + 1 - now);
 
+            synchronized (mWakeUp) {
+                try {
+                    if (!mChanged && mRun && timeout > 0)
+                        mWakeUp.wait(timeout == Long.MAX_VALUE ? 0 : timeout);
+                } catch (InterruptedException ignored) {
                 }
+                mChanged = false;
             }
         }
 
@@ -391,9 +461,14 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         }
 
         public void lockCanvasAndDraw() {
+            long start = System.nanoTime();
             Canvas c = null;
             try {
-                c = mSurfaceHolder.lockCanvas(null);
+                // a hardware canvas blits the cached layers as textures
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    c = mSurfaceHolder.lockHardwareCanvas();
+                else
+                    c = mSurfaceHolder.lockCanvas(null);
                 synchronized (mSurfaceHolder) {
                     doDraw(c);
 
@@ -409,6 +484,16 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
                     mElapsedSinceDraw = 0;// mLastTime set to current
                     // moment in updateTime
+                    // the first frame on a surface created after resuming
+                    long resumeTime = mResumeTime;
+                    if (resumeTime != 0 && mFrameTime.getCount() == 0) {
+                        mResumeTime = 0;
+                        Log.i(TAG, "first frame " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resumeTime) + " ms after resume");
+                    }
+                    mFrameTime.record(System.nanoTime() - start);
+                } else {
+                    // nothing shown, the next check draws again
+                    mFrameKey = FRAME_NONE;
                 }
             }
         }
@@ -424,6 +509,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
          */
         public void setRunning(boolean b) {
             mRun = b;
+            wakeUp();
         }
 
         public void doMotorMovement(float pitch, float roll) {
@@ -521,12 +607,16 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
             synchronized (mSurfaceHolder) {
                 mCanvasWidth = width;
                 mCanvasHeight = height;
-                float mAHeight = mActionButton.getHeight();
-                float mAWidth = mActionButton.getWidth();
-                mActionButton = Bitmap.createScaledBitmap(mActionButton, width, (Math.round((width * (mAHeight / mAWidth)))), true);
-                mActionDownButton = Bitmap.createScaledBitmap(mActionDownButton, width, (Math.round((width * (mAHeight / mAWidth)))), true);
+                mSurfaceWidth = width;
+                mSurfaceHeight = height;
+                // the bitmaps are decoded at the size they're drawn with, surfaces of
+                // the same size share them
+                int[] buttonSize = BitmapCache.getSize(mResources, R.drawable.action_btn_up);
+                int buttonHeight = Math.round(width * ((float) buttonSize[1] / buttonSize[0]));
+                mActionButton = BitmapCache.get(mResources, R.drawable.action_btn_up, width, buttonHeight);
+                mActionDownButton = BitmapCache.get(mResources, R.drawable.action_btn_down, width, buttonHeight);
                 // don't forget to resize the background image
-                mBackgroundImage = Bitmap.createScaledBitmap(mBackgroundImage, width, height, true);
+                mBackgroundImage = BitmapCache.get(mResources, R.drawable.background_2, width, height);
 
                 int temp_ratio = mCanvasWidth / 64;
                 GOAL_WIDTH = mCanvasWidth / temp_ratio;
@@ -537,9 +627,15 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
                 temp_ratio = mCanvasHeight / 64;
                 GOAL_HEIGHT = mCanvasHeight / temp_ratio;
 
-                mTarget = Bitmap.createScaledBitmap(mTarget, GOAL_WIDTH, GOAL_HEIGHT, true);
-                mTargetInactive = Bitmap.createScaledBitmap(mTargetInactive, GOAL_WIDTH, GOAL_HEIGHT, true);
+                mTarget = BitmapCache.get(mResources, R.drawable.target_no_orange_dot, GOAL_WIDTH, GOAL_HEIGHT);
+                mTargetInactive = BitmapCache.get(mResources, R.drawable.target, GOAL_WIDTH, GOAL_HEIGHT);
+
+                // composited again for the new size
+                for (int layer = 0; layer < mStaticLayers.length; layer++)
+                    mStaticLayers[layer] = null;
+                mFrameKey = FRAME_NONE;
             }
+            wakeUp();
         }
 
         /**
@@ -566,7 +662,6 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
             long elapsed = now - mLastTime;
             //	elapsedSincePulse += elapsed;
             mElapsedSinceDraw += elapsed;
-            mElapsedSinceNXTCommand += elapsed;
             mLastTime = now;
 
         }
@@ -579,27 +674,9 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
         void updateMoveIndicator(float mAcX, float mAcY) {
 
-            // IIR filtering for x direction
-            xX1 = xX0;
-            xX0 = mAcX;
-            xY1 = xY0;
-            xY0 = (float) 0.07296293 * xX0 + (float) 0.07296293 * xX1 + (float) 0.8540807 * xY1;
-            mAcX = xY0;
-
-            // IIR filtering for y direction
-            yX1 = yX0;
-            yX0 = mAcY;
-            yY1 = yY0;
-            yY0 = (float) 0.07296293 * yX0 + (float) 0.07296293 * yX1 + (float) 0.8540807 * yY1;
-            mAcY = yY0;
-
             mX = ((mCanvasWidth / 2)) + (int) ((mAcX / 10) * (mCanvasWidth / 10));
 
-            mNumAcX = mAcX;
-
             mY = (((mCanvasHeight - mActionButton.getHeight()) / 2)) + (int) ((mAcY / 10) * ((mCanvasHeight - mActionButton.getHeight()) / 10));
-
-            mNumAcY = mAcY;
         }
 
         public boolean isInGoal() {
@@ -625,27 +702,58 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
     /** The thread that actually draws the animation */
     private GameThread thread;
 
-    private SensorManager mSensorManager;
-
-    /** orientation (tilt) readings */
-    private float mAccelX = 0;
-    private float mAccelY = 0;
+    private TiltSensor mTiltSensor;
+
+    /** size of the last surface, the display size until the first surface is known */
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+
+    /**
+     * time of registerListener(), until the first frame of the next surface is
+     * posted or the listener is unregistered, 0 then
+     */
+    private volatile long mResumeTime = 0;
+
+    /** filtered tilt readings, written by the sensor listener */
+    private volatile float mNumAcX;
+    private volatile float mNumAcY;
+
+    /** digital filtering variables, only touched by the sensor listener **/
+    private float xX0 = 0;
+    private float xX1 = 0;
+    private float xY0 = 0;
+    private float xY1 = 0;
+
+    private float yX0 = 0;
+    private float yX1 = 0;
+    private float yY0 = 0;
+    private float yY1 = 0;
+
+    /**
+     * sends the motor commands at the update interval, triggered by the sensor
+     * events and independent of the redraws
+     */
+    private final ControlScheduler mControlScheduler = new ControlScheduler(new Runnable() {
+        @Override
+        public void run() {
+            //calculate and send command to move motors
+            getThread().doMotorMovement(-mNumAcY, -mNumAcX);
+            mControlScheduler.setInterval(mActivity.getMotorUpdateInterval());
+        }
+    }, ControlRateController.INITIAL_INTERVAL);
     /**time that action button was pressed - used to calc long or short press */
     long mTimeActionDown = 0;
 
-    private final SensorEventListener mSensorAccelerometer = new SensorEventListener() {
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-            // TODO Auto-generated method stub
-
-        }
+    private final TiltListener mTiltListener = new TiltListener() {
 
         @Override
-        public void onSensorChanged(SensorEvent event) {
+        public void onTiltChanged(float pitch, float roll) {
 
-            mAccelX = 0 - event.values[2];
-            mAccelY = 0 - event.values[1];
+            filterTilt(0 - roll, 0 - pitch);
+            long now = System.nanoTime();
+            mActivity.getControlLatency().sensorChanged(now);
+            mControlScheduler.sensorChanged(now);
+            getThread().wakeUp();
 
         }
 
@@ -656,12 +764,15 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         super(context);
 
         mActivity = uiActivity;
-        mSensorManager = (SensorManager) mActivity.getSystemService(Context.SENSOR_SERVICE);
+        mTiltSensor = new TiltSensor((SensorManager) mActivity.getSystemService(Context.SENSOR_SERVICE), mTiltListener);
         // register our interest in hearing about changes to our surface
         SurfaceHolder holder = getHolder();
         holder.setKeepScreenOn(true);
         holder.addCallback(this);
         this.context = context;
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mSurfaceWidth = metrics.widthPixels;
+        mSurfaceHeight = metrics.heightPixels;
         // create thread only; it's started in surfaceCreated()
         thread = new GameThread(holder, context, (Vibrator) uiActivity.getSystemService(Context.VIBRATOR_SERVICE), new Handler() {
             @Override
@@ -702,16 +813,50 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
                     }
                     break;
             }
+            getThread().wakeUp();
         }
         return true;
     }
 
-    public void registerListener() {
-        List<Sensor> sensorList;
-        // register orientation sensor
-        sensorList = mSensorManager.getSensorList(Sensor.TYPE_ORIENTATION);
-        // access sensor 0, when not found an exception is thrown
-        mSensorManager.registerListener(mSensorAccelerometer, sensorList.get(0), SensorManager.SENSOR_DELAY_GAME);
+    private void filterTilt(float mAcX, float mAcY) {
+
+        // IIR filtering for x direction
+        xX1 = xX0;
+        xX0 = mAcX;
+        xY1 = xY0;
+        xY0 = (float) 0.07296293 * xX0 + (float) 0.07296293 * xX1 + (float) 0.8540807 * xY1;
+        mNumAcX = xY0;
+
+        // IIR filtering for y direction
+        yX1 = yX0;
+        yX0 = mAcY;
+        yY1 = yY0;
+        yY0 = (float) 0.07296293 * yX0 + (float) 0.07296293 * yX1 + (float) 0.8540807 * yY1;
+        mNumAcY = yY0;
+    }
+
+    /**
+     * Registers the tilt sensor and starts the control loop.
+     *
+     * @return false when the device has no appropriate sensor
+     */
+    public boolean registerListener() {
+        if (!mTiltSensor.start())
+            return false;
+
+        Log.i(TAG, "tilt sensor: " + mTiltSensor.getSensorName());
+        mResumeTime = System.nanoTime();
+        mControlScheduler.start();
+        return true;
+    }
+
+    /**
+     * Lets the tilt sensor deliver every value at once while the robot is
+     * connected, otherwise it may batch them. The screen shows the new state.
+     */
+    public void setControlActive(boolean active) {
+        mTiltSensor.setActive(active);
+        getThread().wakeUp();
     }
 
     @Override
@@ -758,7 +903,12 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
     }
 
     public void unregisterListener() {
-        mSensorManager.unregisterListener(mSensorAccelerometer);
+        mTiltSensor.stop();
+        mResumeTime = 0;
+        if (mControlScheduler.isRunning() && mControlScheduler.getLatency().getCount() > 0)
+            Log.i(TAG, "control loop\n" + mControlScheduler);
+        mControlScheduler.stop();
+        mControlScheduler.reset();
 
     }
 
@@ -0,0 +1,151 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending reply to one LCP request. It's completed by the receiving
+ * thread of the communicator with the matching reply message, or it fails
+ * when the reply doesn't arrive before the deadline of the request.
+ */
+public class LCPReply implements Future<byte[]> {
+
+    private final byte command;
+    private final long sendTime;
+    private final long deadline;
+
+    private byte[] reply = null;
+    private boolean failed = false;
+    private boolean cancelled = false;
+
+    /**
+     * @param command the command byte of the request, the reply carries the same one
+     * @param timeout maximum time to wait for the reply in milliseconds
+     */
+    LCPReply(byte command, long timeout) {
+        this.command = command;
+        this.sendTime = System.nanoTime();
+        this.deadline = sendTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    byte getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the time the request was registered in System.nanoTime() units
+     */
+    long getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return the deadline of the request in System.nanoTime() units
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    synchronized boolean complete(byte[] message) {
+        if (isDone())
+            return false;
+
+        reply = message;
+        notifyAll();
+        return true;
+    }
+
+    synchronized boolean fail() {
+        if (isDone())
+            return false;
+
+        failed = true;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone())
+            return false;
+
+        cancelled = true;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true, when the request ran out of time or was cancelled
+     */
+    synchronized boolean hasFailed() {
+        return failed || cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return reply != null || failed || cancelled;
+    }
+
+    /**
+     * Waits until the reply arrives or the deadline of the request has passed.
+     */
+    @Override
+    public synchronized byte[] get() throws InterruptedException, ExecutionException {
+        long remaining;
+        while (!isDone() && (remaining = deadline - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+
+        return getReply();
+    }
+
+    @Override
+    public synchronized byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long waitEnd = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (!isDone() && (remaining = Math.min(deadline, waitEnd) - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+
+        if (!isDone() && deadline - waitEnd > 0)
+            throw new TimeoutException();
+
+        return getReply();
+    }
+
+    private byte[] getReply() throws ExecutionException {
+        if (reply != null)
+            return reply;
+
+        if (cancelled)
+            throw new CancellationException();
+
+        throw new ExecutionException(new TimeoutException("no reply for LCP command " + (command & 0xff)));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lego.minddroid.lcp.LCPMessage;
+
+/**
+ * Matches incoming reply messages to the requests waiting for them, so
+ * several requests can be in flight at the same time. The brick answers
+ * in the order of the requests, so a reply belongs to the oldest pending
+ * request with the same command byte.
+ */
+class LCPReplyCorrelator {
+
+    private final List<LCPReply> pendingReplies = new ArrayList<LCPReply>();
+
+    /**
+     * Registers a request, has to be called before the request is sent.
+     * @param command the command byte of the request
+     * @param timeout maximum time to wait for the reply in milliseconds
+     * @return the future completed with the reply
+     */
+    synchronized LCPReply register(byte command, long timeout) {
+        LCPReply reply = new LCPReply(command, timeout);
+        pendingReplies.add(reply);
+        return reply;
+    }
+
+    /**
+     * Completes the oldest pending request matching the reply message.
+     * @param message a message received from the brick
+     * @return the completed request or null when nobody was waiting for it
+     */
+    synchronized LCPReply match(byte[] message) {
+        if (message.length < 2 || message[0] != LCPMessage.REPLY_COMMAND)
+            return null;
+
+        for (int index = 0; index < pendingReplies.size(); index++) {
+            LCPReply reply = pendingReplies.get(index);
+            if (reply.getCommand() == message[1]) {
+                pendingReplies.remove(index);
+                reply.complete(message);
+                return reply;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lets all requests fail whose deadline has passed.
+     * @param now the current time in System.nanoTime() units
+     * @return the number of failed requests
+     */
+    synchronized int expire(long now) {
+        int expired = 0;
+        for (int index = pendingReplies.size() - 1; index >= 0; index--) {
+            LCPReply reply = pendingReplies.get(index);
+            if (now - reply.getDeadline() >= 0 || reply.isCancelled()) {
+                pendingReplies.remove(index);
+                if (reply.fail())
+                    expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the earliest deadline of all pending requests or Long.MAX_VALUE when there are none
+     */
+    synchronized long nextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (int index = 0; index < pendingReplies.size(); index++) {
+            long deadline = pendingReplies.get(index).getDeadline();
+            if (next == Long.MAX_VALUE || deadline - next < 0)
+                next = deadline;
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of requests waiting for their reply
+     */
+    synchronized int size() {
+        return pendingReplies.size();
+    }
+
+    /**
+     * Lets all pending requests fail, e.g. when the connection is closed.
+     */
+    synchronized void failAll() {
+        for (int index = 0; index < pendingReplies.size(); index++)
+            pendingReplies.get(index).fail();
+        pendingReplies.clear();
+    }
+
+}
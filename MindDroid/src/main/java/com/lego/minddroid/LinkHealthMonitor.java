@@ -0,0 +1,174 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the health of the connection. When nothing was received for some
+ * time, a KEEP_ALIVE request should be sent, the round trip times of the
+ * replies are sampled. The link is degraded when replies get slow or
+ * overdue and dead when nothing arrives within the dead link budget.
+ */
+class LinkHealthMonitor {
+
+    static final int LINK_OK = 0;
+    static final int LINK_DEGRADED = 1;
+    static final int LINK_DEAD = 2;
+
+    static final int DEFAULT_KEEP_ALIVE_INTERVAL = 500;
+    static final int DEFAULT_DEGRADED_ROUND_TRIP = 250;
+    static final int DEFAULT_DEAD_LINK_BUDGET = 2000;
+
+    // has to be a power of two
+    private static final int SAMPLE_COUNT = 64;
+
+    private volatile long keepAliveInterval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_KEEP_ALIVE_INTERVAL);
+    private volatile long degradedRoundTrip = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEGRADED_ROUND_TRIP);
+    private volatile long deadLinkBudget = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEAD_LINK_BUDGET);
+
+    private volatile long lastReceiveTime;
+    private volatile long keepAliveSendTime = 0;
+    private volatile boolean keepAlivePending = false;
+    private volatile boolean keepAliveMissed = false;
+
+    private final long[] roundTripSamples = new long[SAMPLE_COUNT];
+    private final long[] sortedSamples = new long[SAMPLE_COUNT];
+    private int sampleCount = 0;
+    private volatile long roundTrip90 = 0;
+
+    LinkHealthMonitor() {
+        lastReceiveTime = System.nanoTime();
+    }
+
+    /**
+     * @param keepAliveInterval time without received messages before a KEEP_ALIVE is sent in milliseconds
+     * @param degradedRoundTrip round trip time of the 90th percentile, above which the link is degraded
+     * @param deadLinkBudget time without received messages after which the link is dead in milliseconds
+     */
+    void configure(int keepAliveInterval, int degradedRoundTrip, int deadLinkBudget) {
+        this.keepAliveInterval = TimeUnit.MILLISECONDS.toNanos(keepAliveInterval);
+        this.degradedRoundTrip = TimeUnit.MILLISECONDS.toNanos(degradedRoundTrip);
+        this.deadLinkBudget = TimeUnit.MILLISECONDS.toNanos(deadLinkBudget);
+    }
+
+    /**
+     * Starts watching again, e.g. after (re)connecting.
+     */
+    synchronized void reset(long now) {
+        lastReceiveTime = now;
+        keepAlivePending = false;
+        keepAliveMissed = false;
+        sampleCount = 0;
+        roundTrip90 = 0;
+    }
+
+    /**
+     * Called by the receiving thread for every message.
+     */
+    void messageReceived(long now) {
+        lastReceiveTime = now;
+    }
+
+    /**
+     * Called when the reply to a KEEP_ALIVE or another request arrived.
+     * @param roundTrip time between request and reply in System.nanoTime() units
+     */
+    synchronized void replyReceived(long roundTrip, boolean keepAlive) {
+        roundTripSamples[sampleCount & (SAMPLE_COUNT - 1)] = roundTrip;
+        sampleCount++;
+        roundTrip90 = getRoundTripPercentile(90);
+        if (keepAlive) {
+            keepAlivePending = false;
+            keepAliveMissed = false;
+        }
+    }
+
+    /**
+     * @return true, when a KEEP_ALIVE request should be sent now
+     */
+    boolean isKeepAliveDue(long now) {
+        return !keepAlivePending && now - lastReceiveTime >= keepAliveInterval &&
+            now - keepAliveSendTime >= keepAliveInterval;
+    }
+
+    void keepAliveSent(long now) {
+        keepAliveSendTime = now;
+        keepAlivePending = true;
+    }
+
+    /**
+     * Called when a KEEP_ALIVE request ran out of time.
+     */
+    void keepAliveMissed() {
+        keepAlivePending = false;
+        keepAliveMissed = true;
+    }
+
+    /**
+     * A missed KEEP_ALIVE marks the link as degraded and is sent again,
+     * so its timeout has to be well below the dead link budget.
+     * @return the maximum time for a KEEP_ALIVE reply in milliseconds
+     */
+    int getKeepAliveTimeout() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(Math.min(2 * keepAliveInterval, deadLinkBudget / 2));
+    }
+
+    /**
+     * @return the time of the next check in System.nanoTime() units
+     */
+    long getNextCheck(long now) {
+        long nextKeepAlive = Math.max(lastReceiveTime, keepAliveSendTime) + keepAliveInterval;
+        long dead = lastReceiveTime + deadLinkBudget;
+        long next = keepAlivePending || nextKeepAlive - dead > 0 ? dead : nextKeepAlive;
+        return next - now > 0 ? next : now;
+    }
+
+    /**
+     * @return one of LINK_OK, LINK_DEGRADED and LINK_DEAD
+     */
+    int getLinkState(long now) {
+        if (now - lastReceiveTime > deadLinkBudget)
+            return LINK_DEAD;
+
+        if (keepAliveMissed || roundTrip90 > degradedRoundTrip)
+            return LINK_DEGRADED;
+
+        return LINK_OK;
+    }
+
+    /**
+     * @param percentile the percentile from 0 to 100
+     * @return the round trip time of the given percentile of the last samples
+     * in System.nanoTime() units or 0 without samples
+     */
+    synchronized long getRoundTripPercentile(int percentile) {
+        int count = Math.min(sampleCount, SAMPLE_COUNT);
+        if (count == 0)
+            return 0;
+
+        System.arraycopy(roundTripSamples, 0, sortedSamples, 0, count);
+        Arrays.sort(sortedSamples, 0, count);
+        int index = (percentile * count + 99) / 100 - 1;
+        return sortedSamples[Math.max(0, Math.min(count - 1, index))];
+    }
+
+}
@@ -30,11 +30,19 @@ import android.os.Message
 import android.os.Vibrator
 import android.speech.tts.TextToSpeech
 import android.speech.tts.TextToSpeech.OnInitListener
+import android.util.Log
 import android.view.Menu
 import android.view.MenuItem
 import android.view.Window
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
+import com.lego.minddroid.lcp.ControlLatency
+import com.lego.minddroid.lcp.FileInfoReply
+import com.lego.minddroid.lcp.FirmwareVersionReply
+import com.lego.minddroid.lcp.LCPMessage
+import com.lego.minddroid.lcp.OutputStateReply
+import com.lego.minddroid.lcp.WireTraceRecorder
+import java.io.File
 import java.io.IOException
 import java.util.*
 
@@ -70,9 +78,25 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
     private var motorAction = 0
     private var directionAction = 0 // +/- 1 = 0
     private var programList: MutableList<String>? = null
+    private var foundFiles: MutableList<String>? = null
+    private val rateController = ControlRateController()
+    // reused for every reply, only touched by myHandler
+    private val outputStateReply = OutputStateReply()
+    private val firmwareReply = FirmwareVersionReply()
+    private val fileInfoReply = FileInfoReply()
+    // automatic reconnect after connection errors
+    private var sessionAddress: String? = null
+    private var reconnecting = false
+    private var reconnectAttempt = 0
+    private var lastLeft = 0
+    private var lastRight = 0
     private var programToStart: String? = null
     // experimental TTS support
     private lateinit var tts: TextToSpeech
+    // opt-in recording of all frames, see the options of the splash menu
+    private var wireTrace: WireTraceRecorder? = null
+    // stages of the control updates from the sensor event to the socket write, fed by the GameView as well
+    val controlLatency = ControlLatency()
 
     public override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -87,6 +111,21 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
         setContentView(mView)
         // experimental TTS support for the lejosMINDdroid project
         tts = TextToSpeech(this, this)
+        if (getSharedPreferences(SplashMenu.MINDDROID_PREFS, Context.MODE_PRIVATE).getBoolean(SplashMenu.MINDDROID_WIRE_TRACE, false))
+            openWireTrace()
+    }
+
+    /**
+     * Opens the ring file for recording the frames. It's kept in the app's external
+     * files directory, so it can be copied from the device after a problem.
+     */
+    private fun openWireTrace() {
+        try {
+            val directory = getExternalFilesDir(null) ?: filesDir
+            wireTrace = WireTraceRecorder.open(File(directory, WIRE_TRACE_FILE), WIRE_TRACE_SLOTS)
+        } catch (e: IOException) {
+            Log.w(TAG, "wire trace not available", e)
+        }
     }
 
     /**
@@ -126,6 +165,7 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
      * Updates the menus and possible buttons when connection status changed.
      */
     private fun updateButtonsAndMenu() {
+        mView?.setControlActive(isConnected)
         if (myMenu == null) return
         myMenu!!.removeItem(MENU_TOGGLE_CONNECT)
         if (isConnected) {
@@ -140,6 +180,8 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
      */
     private fun createBTCommunicator() { // interestingly BT adapter needs to be obtained by the UI thread - so we pass it in in the constructor
         myBTCommunicator = BTCommunicator(this, myHandler, BluetoothAdapter.getDefaultAdapter(), resources)
+        myBTCommunicator!!.setWireTrace(wireTrace)
+        myBTCommunicator!!.setControlLatency(controlLatency)
         btcHandler = myBTCommunicator!!.handler
     }
 
@@ -157,17 +199,64 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
             } catch (ignored: IOException) {
             }
         }
+        reconnecting = false
+        sessionAddress = null
         createBTCommunicator()
+        rateController.reset()
         myBTCommunicator!!.setMACAddress(mac_address)
         myBTCommunicator!!.start()
         updateButtonsAndMenu()
     }
 
+    /**
+     * Schedules the next try for reconnecting to the robot of the current session.
+     *
+     * @return false, when there's no session to restore or all tries failed
+     */
+    private fun scheduleReconnect(): Boolean {
+        if (sessionAddress == null || reconnectAttempt >= RECONNECT_DELAYS.size) {
+            reconnecting = false
+            return false
+        }
+        reconnecting = true
+        myHandler.postDelayed(reconnectRunnable, RECONNECT_DELAYS[reconnectAttempt++])
+        return true
+    }
+
+    /**
+     * Replaces the broken communicator by a new one connecting to the same robot.
+     * No progress dialog is shown, the game view keeps running meanwhile.
+     */
+    private val reconnectRunnable = Runnable {
+        if (reconnecting) {
+            if (myBTCommunicator != null) {
+                try {
+                    myBTCommunicator!!.destroyNXTconnection()
+                } catch (ignored: IOException) {
+                }
+            }
+            createBTCommunicator()
+            rateController.reset()
+            myBTCommunicator!!.setMACAddress(sessionAddress)
+            myBTCommunicator!!.start()
+        }
+    }
+
     /**
      * Sends a message for disconnecting to the communcation thread.
      */
     fun destroyBTCommunicator() {
+        reconnecting = false
+        sessionAddress = null
+        myHandler.removeCallbacks(reconnectRunnable)
         if (myBTCommunicator != null) {
+            if (controlLatency.getHistogram(ControlLatency.TOTAL).count > 0)
+                Log.i(TAG, "control latency\n$controlLatency")
+            Log.i(TAG, "motor commands superseded ${myBTCommunicator!!.supersededMotorCommands}, " +
+                    "suppressed ${myBTCommunicator!!.suppressedMotorCommands}")
+            Log.i(TAG, "frames sent ${myBTCommunicator!!.framesSent} " +
+                    "in ${myBTCommunicator!!.streamWrites} writes, " +
+                    "${myBTCommunicator!!.droppedMessages} dropped")
             sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.DISCONNECT, 0, 0)
             myBTCommunicator = null
         }
@@ -275,20 +364,80 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
         }
     }
 
+    /**
+     * Gets the time between two motor updates, adapted to the speed of the connection.
+     *
+     * @return the interval in milliseconds
+     */
+    val motorUpdateInterval: Int
+        get() = rateController.interval
+
+    /**
+     * Gets the number of commands waiting for the connection.
+     *
+     * @return the backlog of the communication thread
+     */
+    val linkBacklog: Int
+        get() = myBTCommunicator?.backlog ?: 0
+
     /**
      * Sends the motor control values to the communcation thread.
      *
      * @param left The power of the left motor from 0 to 100.
      */
     fun updateMotorControl(left: Int, right: Int) {
-        if (myBTCommunicator != null) { // don't send motor stop twice
+        val communicator = myBTCommunicator
+        if (communicator != null) { // adapt the update rate to the connection
+            rateController.update(communicator.backlog, Math.max(communicator.writeTime, communicator.roundTripTime / 2))
+            // don't send motor stop twice
             stopAlreadySent = if (left == 0 && right == 0) {
                 if (stopAlreadySent) return else true
             } else false
+            lastLeft = left
+            lastRight = right
+            controlLatency.controlUpdated(System.nanoTime())
             // send messages via the handler
-            sendBTCmessage(BTCommunicator.NO_DELAY, motorLeft, left * directionLeft, 0)
-            sendBTCmessage(BTCommunicator.NO_DELAY, motorRight, right * directionRight, 0)
+            if (isSyncDriveSupported) {
+                sendSyncMotorControl(left * directionLeft, right * directionRight)
+            } else {
+                sendBTCmessage(BTCommunicator.NO_DELAY, motorLeft, left * directionLeft, 0)
+                sendBTCmessage(BTCommunicator.NO_DELAY, motorRight, right * directionRight, 0)
+            }
+        }
+    }
+
+    /**
+     * The synchronized mode of the firmware keeps the drive motors B and C in lockstep
+     * with a single command. leJOS programs evaluate the motor powers by themselves.
+     */
+    private val isSyncDriveSupported: Boolean
+        get() = mRobotType != R.id.robot_type_lejos &&
+                ((motorLeft == BTCommunicator.MOTOR_B && motorRight == BTCommunicator.MOTOR_C) ||
+                        (motorLeft == BTCommunicator.MOTOR_C && motorRight == BTCommunicator.MOTOR_B))
+
+    /**
+     * Converts the powers of the drive motors into power and turn ratio for the synchronized mode,
+     * the faster motor gets the power and the turn ratio slows down the other one.
+     *
+     * @param leftPower  The power of the left motor from -100 to 100.
+     * @param rightPower The power of the right motor from -100 to 100.
+     */
+    private fun sendSyncMotorControl(leftPower: Int, rightPower: Int) {
+        val powerB = if (motorLeft == BTCommunicator.MOTOR_B) leftPower else rightPower
+        val powerC = if (motorLeft == BTCommunicator.MOTOR_B) rightPower else leftPower
+        var power = 0
+        var turnRatio = 0
+        // positive turn ratios slow down motor C, negative ones motor B
+        if (Math.abs(powerB) >= Math.abs(powerC)) {
+            if (powerB != 0) {
+                power = powerB
+                turnRatio = Math.round(50 * (1 - powerC.toFloat() / powerB))
+            }
+        } else {
+            power = powerC
+            turnRatio = -Math.round(50 * (1 - powerB.toFloat() / powerC))
         }
+        sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.MOTOR_SYNC, power, turnRatio)
     }
 
     /**
@@ -300,12 +449,8 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
      * @param value2  second parameter
      */
     fun sendBTCmessage(delay: Int, message: Int, value1: Int, value2: Int) {
-        val myBundle = Bundle()
-        myBundle.putInt("message", message)
-        myBundle.putInt("value1", value1)
-        myBundle.putInt("value2", value2)
-        val myMessage = myHandler.obtainMessage()
-        myMessage.data = myBundle
+        // recycled message without Bundle, so a control update creates no garbage
+        val myMessage = btcHandler!!.obtainMessage(message, value1, value2)
         if (delay == 0) btcHandler!!.sendMessage(myMessage) else btcHandler!!.sendMessageDelayed(myMessage, delay.toLong())
     }
 
@@ -316,19 +461,13 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
      * @param message the message type (as defined in BTCommucator)
      */
     fun sendBTCmessage(delay: Int, message: Int, name: String?) {
-        val myBundle = Bundle()
-        myBundle.putInt("message", message)
-        myBundle.putString("name", name)
-        val myMessage = myHandler.obtainMessage()
-        myMessage.data = myBundle
+        val myMessage = btcHandler!!.obtainMessage(message, name)
         if (delay == 0) btcHandler!!.sendMessage(myMessage) else btcHandler!!.sendMessageDelayed(myMessage, delay.toLong())
     }
 
     public override fun onResume() {
         super.onResume()
-        try {
-            mView!!.registerListener()
-        } catch (ex: IndexOutOfBoundsException) {
+        if (!mView!!.registerListener()) {
             showToast(R.string.sensor_initialization_failure)
             destroyBTCommunicator()
             finish()
@@ -356,6 +495,12 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
         super.onDestroy()
         tts.shutdown()
         destroyBTCommunicator()
+        try {
+            wireTrace?.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "wire trace not closed", e)
+        }
+        wireTrace = null
     }
 
     public override fun onPause() {
@@ -443,28 +588,38 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
      */
     val myHandler: Handler = object : Handler() {
         override fun handleMessage(myMessage: Message) {
-            when (myMessage.data.getInt("message")) {
-                BTCommunicator.DISPLAY_TOAST -> showToast(myMessage.data.getString("toastText"))
-                BTCommunicator.STATE_CONNECTED -> {
+            when (myMessage.what) {
+                BTCommunicator.DISPLAY_TOAST -> showToast(myMessage.obj as String)
+                BTCommunicator.STATE_CONNECTED -> if (reconnecting) {
+                    // same robot as before: firmware and programs are known already,
+                    // just continue with the last motor command
+                    reconnecting = false
+                    reconnectAttempt = 0
                     isConnected = true
+                    updateButtonsAndMenu()
+                    stopAlreadySent = false
+                    updateMotorControl(lastLeft, lastRight)
+                } else {
+                    isConnected = true
+                    sessionAddress = myBTCommunicator?.getMACAddress()
+                    reconnectAttempt = 0
                     programList = ArrayList()
+                    foundFiles = ArrayList()
                     connectingProgressDialog!!.dismiss()
                     updateButtonsAndMenu()
+                    // both requests are in flight at the same time, the program list
+                    // is filtered again when the firmware is known
                     sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.GET_FIRMWARE_VERSION, 0, 0)
+                    sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.FIND_FILES, 0, 0)
                 }
-                BTCommunicator.MOTOR_STATE -> if (myBTCommunicator != null) {
-                    val motorMessage = myBTCommunicator!!.returnMessage
-                    val position = ByteHelper.byteToInt(motorMessage[21]) +
-                            (ByteHelper.byteToInt(motorMessage[22]) shl 8) +
-                            (ByteHelper.byteToInt(motorMessage[23]) shl 16) +
-                            (ByteHelper.byteToInt(motorMessage[24]) shl 24)
-                    showToast(resources.getString(R.string.current_position) + position)
+                BTCommunicator.MOTOR_STATE -> if (myBTCommunicator != null && outputStateReply.wrap(myMessage.obj as ByteArray)) {
+                    showToast(resources.getString(R.string.current_position) + outputStateReply.rotationCount)
                 }
                 BTCommunicator.STATE_CONNECTERROR_PAIRING -> {
                     connectingProgressDialog!!.dismiss()
                     destroyBTCommunicator()
                 }
-                BTCommunicator.STATE_CONNECTERROR -> {
+                BTCommunicator.STATE_CONNECTERROR -> if (!reconnecting || !scheduleReconnect()) {
                     connectingProgressDialog!!.dismiss()
                     destroyBTCommunicator()
                     if (!btErrorPending) {
@@ -481,7 +636,7 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
                         builder.create().show()
                     }
                 }
-                BTCommunicator.STATE_RECEIVEERROR, BTCommunicator.STATE_SENDERROR -> {
+                BTCommunicator.STATE_RECEIVEERROR, BTCommunicator.STATE_SENDERROR -> if (!reconnecting && !scheduleReconnect()) {
                     destroyBTCommunicator()
                     if (!btErrorPending) {
                         btErrorPending = true
@@ -496,47 +651,38 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
                         builder.create().show()
                     }
                 }
-                BTCommunicator.FIRMWARE_VERSION -> if (myBTCommunicator != null) {
-                    val firmwareMessage = myBTCommunicator!!.returnMessage
+                BTCommunicator.FIRMWARE_VERSION -> if (myBTCommunicator != null && firmwareReply.wrap(myMessage.obj as ByteArray)) {
                     // check if we know the firmware
-                    var isLejosMindDroid = true
-                    var pos = 0
-                    while (pos < 4) {
-                        if (firmwareMessage[pos + 3] != LCPMessage.FIRMWARE_VERSION_LEJOSMINDDROID[pos]) {
-                            isLejosMindDroid = false
-                            break
-                        }
-                        pos++
-                    }
-                    if (isLejosMindDroid) {
+                    if (firmwareReply.isLejosMindDroid) {
                         mRobotType = R.id.robot_type_lejos
                         setUpByType()
+                        // files found so far were filtered for the standard firmware
+                        programList!!.clear()
+                        programList!!.addAll(foundFiles!!)
                     }
-                    // afterwards we search for all files on the robot
-                    sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.FIND_FILES, 0, 0)
                 }
-                BTCommunicator.FIND_FILES -> if (myBTCommunicator != null) {
-                    val fileMessage = myBTCommunicator!!.returnMessage
-                    var fileName = String(fileMessage, 4, 20)
-                    fileName = fileName.replace("\u0000".toRegex(), "")
+                BTCommunicator.FIND_FILES -> if (myBTCommunicator != null && fileInfoReply.wrap(myMessage.obj as ByteArray)) {
+                    val fileName = fileInfoReply.fileName
+                    fileInfoReply.cacheFileName(LCPMessage.FILE_NAMES, fileName)
+                    foundFiles!!.add(fileName)
                     if (mRobotType == R.id.robot_type_lejos || fileName.endsWith(".nxj") || fileName.endsWith(".rxe")) {
                         programList!!.add(fileName)
                     }
                     // find next entry with appropriate handle,
 // limit number of programs (in case of error (endless loop))
-                    if (programList!!.size <= MAX_PROGRAMS) sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.FIND_FILES, 1, ByteHelper.byteToInt(fileMessage[3]))
+                    if (foundFiles!!.size <= MAX_PROGRAMS) sendBTCmessage(BTCommunicator.NO_DELAY, BTCommunicator.FIND_FILES, 1, fileInfoReply.handle)
                 }
                 BTCommunicator.PROGRAM_NAME -> if (myBTCommunicator != null) {
-                    val returnMessage = myBTCommunicator!!.returnMessage
+                    val returnMessage = myMessage.obj as ByteArray
                     startRXEprogram(returnMessage[2])
                 }
                 BTCommunicator.SAY_TEXT -> if (myBTCommunicator != null) {
-                    val resultText = ByteHelper.handleResult(tts, myBTCommunicator!!.returnMessage)
+                    val resultText = ByteHelper.handleResult(tts, myMessage.obj as ByteArray)
                     showToast(resultText)
                     tts.speak(resultText, TextToSpeech.QUEUE_FLUSH, null, null)
                 }
                 BTCommunicator.VIBRATE_PHONE -> if (myBTCommunicator != null) {
-                    val vibrateMessage = myBTCommunicator!!.returnMessage
+                    val vibrateMessage = myMessage.obj as ByteArray
                     val myVibrator = getSystemService(Context.VIBRATOR_SERVICE) as Vibrator
                     myVibrator.vibrate(vibrateMessage[2] * 10.toLong())
                 }
@@ -602,7 +748,6 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
     companion object {
 
         private const val TTS_CHECK_CODE = 9991
-        const val UPDATE_TIME = 200
         const val MENU_TOGGLE_CONNECT = Menu.FIRST
         const val MENU_START_SW = Menu.FIRST + 1
         const val MENU_QUIT = Menu.FIRST + 2
@@ -612,6 +757,12 @@ class MINDdroid : AppCompatActivity(), BTConnectable, OnInitListener {
         private const val REQUEST_ENABLE_BT = 2000
         private var btOnByUs = false
         private const val MAX_PROGRAMS = 20
+        private const val TAG = "MINDdroid"
+        // 16384 frames of the last sessions, 1.5 MB
+        private const val WIRE_TRACE_FILE = "wiretrace.bin"
+        private const val WIRE_TRACE_SLOTS = 16384
+        // delays in milliseconds before the tries for reconnecting after a connection error
+        private val RECONNECT_DELAYS = longArrayOf(0, 250, 500, 1000, 2000)
         /**
          * Asks if bluetooth was switched on during the runtime of the app. For saving
          * battery we switch it off when the app is terminated.
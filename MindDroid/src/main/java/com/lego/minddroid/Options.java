@@ -24,6 +24,7 @@ import android.app.Dialog;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.Window;
+import android.widget.CheckBox;
 import android.widget.RadioButton;
 import android.widget.Toast;
 
@@ -72,6 +73,11 @@ public class Options {
         robotTypeTribot.setOnClickListener(radio_listener);
         robotTypeRobogator.setOnClickListener(radio_listener);
         robotTypeLejos.setOnClickListener(radio_listener);
+
+        // recording of the frames for analyzing connection problems
+        final CheckBox wireTrace = mDialog.findViewById(R.id.wire_trace);
+        wireTrace.setChecked(splashMenu.isWireTraceEnabled());
+        wireTrace.setOnCheckedChangeListener((button, isChecked) -> splashMenu.setWireTraceEnabled(isChecked));
     }
 
     public void show() {
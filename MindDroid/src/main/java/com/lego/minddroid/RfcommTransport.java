@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import com.lego.minddroid.lcp.NxtTransport;
+
+/**
+ * Bluetooth connection to a NXT brick with SerialPortServiceClass_UUID
+ * @see <a href=
+ *      "http://lejos.sourceforge.net/forum/viewtopic.php?t=1991&highlight=android"
+ *      />
+ */
+class RfcommTransport implements NxtTransport {
+
+    private static final UUID SERIAL_PORT_SERVICE_CLASS_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final BluetoothDevice nxtDevice;
+    private final boolean pairing;
+    private BluetoothSocket nxtBTsocket = null;
+
+    /**
+     * @param nxtDevice the paired robot
+     * @param pairing true, when currently pairing. Then there's no second try for connecting.
+     */
+    RfcommTransport(BluetoothDevice nxtDevice, boolean pairing) {
+        this.nxtDevice = nxtDevice;
+        this.pairing = pairing;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        BluetoothSocket nxtBTSocketTemporary = nxtDevice.createRfcommSocketToServiceRecord(SERIAL_PORT_SERVICE_CLASS_UUID);
+        try {
+            nxtBTSocketTemporary.connect();
+        }
+        catch (IOException e) {
+            if (pairing)
+                throw e;
+
+            // try another method for connection, this should work on the HTC desire, credits to Michael Biermann
+            try {
+                Method mMethod = nxtDevice.getClass().getMethod("createRfcommSocket", new Class[] { int.class });
+                nxtBTSocketTemporary = (BluetoothSocket) mMethod.invoke(nxtDevice, Integer.valueOf(1));
+                nxtBTSocketTemporary.connect();
+            }
+            catch (Exception e1) {
+                throw new IOException(e1.toString());
+            }
+        }
+        nxtBTsocket = nxtBTSocketTemporary;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (nxtBTsocket == null)
+            throw new IOException();
+
+        return nxtBTsocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (nxtBTsocket == null)
+            throw new IOException();
+
+        return nxtBTsocket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (nxtBTsocket != null) {
+            BluetoothSocket socket = nxtBTsocket;
+            nxtBTsocket = null;
+            socket.close();
+        }
+    }
+
+}
@@ -40,6 +40,7 @@ public class SplashMenu extends AppCompatActivity {
     public static final int MENU_QUIT = Menu.FIRST + 3;
     public static final String MINDDROID_PREFS = "Mprefs";
     public static final String MINDDROID_ROBOT_TYPE = "MrobotType";
+    public static final String MINDDROID_WIRE_TRACE = "MwireTrace";
     private int mRobotType;
 
     public static void quitApplication() {
@@ -146,4 +147,14 @@ public class SplashMenu extends AppCompatActivity {
         return mRobotType;
     }
 
+    public void setWireTraceEnabled(boolean enabled) {
+        Editor mPrefsEditor = getSharedPreferences(MINDDROID_PREFS, Context.MODE_PRIVATE).edit();
+        mPrefsEditor.putBoolean(MINDDROID_WIRE_TRACE, enabled);
+        mPrefsEditor.apply();
+    }
+
+    public boolean isWireTraceEnabled() {
+        return getSharedPreferences(MINDDROID_PREFS, Context.MODE_PRIVATE).getBoolean(MINDDROID_WIRE_TRACE, false);
+    }
+
 }
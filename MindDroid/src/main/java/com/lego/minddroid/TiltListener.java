@@ -0,0 +1,32 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+public interface TiltListener {
+
+    /**
+     * This will be called by the TiltSensor for every new sensor value.
+     * @param pitch rotation around the x axis in degrees from -180 to 180,
+     *              positive when the top edge of the device moves down
+     * @param roll rotation around the y axis in degrees from -90 to 90,
+     *             positive when the right edge of the device moves up
+     */
+    void onTiltChanged(float pitch, float roll);
+}
@@ -0,0 +1,181 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Delivers pitch and roll of the device with the angles of the deprecated
+ * orientation sensor. The sensors in the order of preference:
+ *
+ * - TYPE_GAME_ROTATION_VECTOR, fused from accelerometer and gyroscope
+ *   without the magnetic field, which the motors of the robot disturb
+ * - TYPE_ROTATION_VECTOR
+ * - TYPE_ACCELEROMETER, the direction of gravity alone
+ *
+ * Pitch and roll are calculated into preallocated arrays, a sensor event
+ * doesn't allocate anything.
+ *
+ * While the control is active the sensor delivers every value at once.
+ * When it's idle, e.g. without a connection, the sensor runs at a lower
+ * rate and may batch its values in the hardware FIFO for up to the idle
+ * report latency, so the application processor can sleep in between.
+ */
+class TiltSensor implements SensorEventListener {
+
+    /** sampling periods and report latency in microseconds */
+    static final int ACTIVE_SAMPLING_PERIOD = 20000;
+    static final int IDLE_SAMPLING_PERIOD = 200000;
+    static final int IDLE_REPORT_LATENCY = 1000000;
+
+    private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
+
+    private final SensorManager sensorManager;
+    private final TiltListener listener;
+
+    private Sensor sensor = null;
+    private boolean active = false;
+
+    private int activeSamplingPeriod = ACTIVE_SAMPLING_PERIOD;
+    private int idleSamplingPeriod = IDLE_SAMPLING_PERIOD;
+    private int idleReportLatency = IDLE_REPORT_LATENCY;
+
+    // some devices reject rotation vectors with more than 4 values
+    private final float[] rotationVector = new float[4];
+    private final float[] rotationMatrix = new float[9];
+
+    TiltSensor(SensorManager sensorManager, TiltListener listener) {
+        this.sensorManager = sensorManager;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers for the best available sensor.
+     * @return false when the device has none of the sensors
+     */
+    boolean start() {
+        if (sensor != null)
+            return true;
+
+        sensor = sensorManager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR);
+        if (sensor == null)
+            sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (sensor == null)
+            sensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (sensor == null)
+            return false;
+
+        register();
+        return true;
+    }
+
+    void stop() {
+        if (sensor == null)
+            return;
+
+        sensorManager.unregisterListener(this);
+        sensor = null;
+    }
+
+    /**
+     * Switches between delivering every value at once and batching them.
+     */
+    void setActive(boolean active) {
+        if (this.active == active)
+            return;
+
+        this.active = active;
+        if (sensor != null) {
+            sensorManager.unregisterListener(this);
+            register();
+        }
+    }
+
+    /**
+     * @param active sampling period in microseconds while the control is active
+     * @param idle sampling period in microseconds while it's idle
+     * @param idleReportLatency how long the values may be batched while idle,
+     *                          in microseconds
+     */
+    void setSampling(int active, int idle, int idleReportLatency) {
+        activeSamplingPeriod = active;
+        idleSamplingPeriod = idle;
+        this.idleReportLatency = idleReportLatency;
+        if (sensor != null) {
+            sensorManager.unregisterListener(this);
+            register();
+        }
+    }
+
+    /**
+     * @return the name of the registered sensor or null
+     */
+    String getSensorName() {
+        return sensor != null ? sensor.getName() : null;
+    }
+
+    private void register() {
+        if (active)
+            sensorManager.registerListener(this, sensor, activeSamplingPeriod, 0);
+        else
+            sensorManager.registerListener(this, sensor, idleSamplingPeriod, idleReportLatency);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float upX;
+        float upY;
+        float upZ;
+        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+            // at rest the accelerometer measures the reaction to gravity, pointing up
+            float length = (float) Math.sqrt(event.values[0] * event.values[0]
+                    + event.values[1] * event.values[1] + event.values[2] * event.values[2]);
+            if (length == 0)
+                return;
+
+            upX = event.values[0] / length;
+            upY = event.values[1] / length;
+            upZ = event.values[2] / length;
+        } else {
+            float[] vector = event.values;
+            if (vector.length > rotationVector.length) {
+                System.arraycopy(vector, 0, rotationVector, 0, rotationVector.length);
+                vector = rotationVector;
+            }
+            SensorManager.getRotationMatrixFromVector(rotationMatrix, vector);
+            // the last row is the world's up axis in device coordinates
+            upX = rotationMatrix[6];
+            upY = rotationMatrix[7];
+            upZ = rotationMatrix[8];
+        }
+
+        float pitch = (float) Math.atan2(-upY, upZ) * RADIANS_TO_DEGREES;
+        float roll = (float) Math.asin(Math.max(-1, Math.min(1, upX))) * RADIANS_TO_DEGREES;
+        listener.onTiltChanged(pitch, roll);
+    }
+
+}
@@ -29,6 +29,9 @@ import android.content.res.Resources;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.lego.minddroid.lcp.LCPFrameReader;
+import com.lego.minddroid.lcp.LCPMessage;
+
 /**
  * The tasks have to be done in this thread, so the user interface
  * isn't blocked.
@@ -109,6 +112,9 @@ public final class UploadThread extends Thread {
                 signalUpdate(IDLE);
             } catch (FileNotFoundException e) {
                 errorCode = OPEN_FILE_ERROR;
+            } catch (IllegalArgumentException e) {
+                // the NXT doesn't accept the file name
+                errorCode = OPEN_FILE_ERROR;
             } catch (IOException e) {
                 errorCode = uploading ? UPLOAD_ERROR : OPEN_BT_ERROR;
             } finally {
@@ -156,6 +162,10 @@ public final class UploadThread extends Thread {
      */
     private void uploadFile(String fileName) throws IOException {
         byte[] data = new byte[MAX_BUFFER_SIZE];
+        // reused for every chunk of the file
+        byte[] writeMessage = new byte[MAX_BUFFER_SIZE + 3];
+        byte[] reply = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+        int replyLength;
         int readLength;
         InputStream inputStream;
         byte[] message;
@@ -222,19 +232,18 @@ public final class UploadThread extends Thread {
         byte handle = message[3];
         while ((readLength = inputStream.read(data)) > 0) {
             // send WriteMessage and receive reply with next handle
-            message = LCPMessage.getWriteMessage(handle, data, readLength);
-            mBTCommunicator.sendMessage(message);
+            int length = LCPMessage.encodeWriteMessage(writeMessage, 0, handle, data, readLength);
+            mBTCommunicator.sendMessage(writeMessage, length);
             // get reply message and with handle
-            message = mBTCommunicator.receiveMessage();
+            replyLength = mBTCommunicator.receiveMessage(reply);
             // check message and get handle
-            if (message == null ||
-                    message.length != 6 ||
-                    message[0] != LCPMessage.REPLY_COMMAND ||
-                    message[1] != LCPMessage.WRITE ||
-                    message[2] != 0)
+            if (replyLength != 6 ||
+                    reply[0] != LCPMessage.REPLY_COMMAND ||
+                    reply[1] != LCPMessage.WRITE ||
+                    reply[2] != 0)
                 throw new IOException();
 
-            handle = message[3];
+            handle = reply[3];
             mUploaded += readLength;
             signalUpdate(UPLOADING);
         }
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ControlRateControllerTest {
+
+    /**
+     * A link which needs the given time for every update, commands sent
+     * while it is still busy with earlier ones pile up as backlog.
+     */
+    private static class SimulatedLink {
+        private final int writeTime;
+        private long now;
+        private long busyUntil;
+
+        SimulatedLink(int writeTime) {
+            this.writeTime = writeTime;
+        }
+
+        int step(ControlRateController controller) {
+            int backlog = (int) ((Math.max(0, busyUntil - now) + writeTime - 1) / writeTime);
+            busyUntil = Math.max(now, busyUntil) + writeTime;
+            int interval = controller.update(backlog, writeTime);
+            assertInBounds(interval);
+            now += interval;
+            return backlog;
+        }
+    }
+
+    private static void assertInBounds(int interval) {
+        assertTrue("interval " + interval, interval >= ControlRateController.MIN_INTERVAL);
+        assertTrue("interval " + interval, interval <= ControlRateController.MAX_INTERVAL);
+    }
+
+    private static ControlRateController settle(SimulatedLink link) {
+        ControlRateController controller = new ControlRateController();
+        for (int i = 0; i < 200; i++)
+            link.step(controller);
+        return controller;
+    }
+
+    @Test
+    public void fastLinkConvergesToMinimum() {
+        assertEquals(ControlRateController.MIN_INTERVAL, settle(new SimulatedLink(5)).getInterval());
+    }
+
+    @Test
+    public void slowLinkBacksOffToMaximum() {
+        assertEquals(ControlRateController.MAX_INTERVAL, settle(new SimulatedLink(400)).getInterval());
+    }
+
+    @Test
+    public void mediumLinkSettlesWithHeadroom() {
+        SimulatedLink link = new SimulatedLink(40);
+        ControlRateController controller = settle(link);
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = 0; i < 50; i++) {
+            assertEquals("no backlog once settled", 0, link.step(controller));
+            min = Math.min(min, controller.getInterval());
+            max = Math.max(max, controller.getInterval());
+        }
+        assertTrue("interval " + min, min >= 3 * 40);
+        assertTrue("interval " + max, max <= 3 * 40 + 2 * ControlRateController.INTERVAL_STEP);
+    }
+
+    @Test
+    public void backlogDoublesUpToMaximum() {
+        ControlRateController controller = new ControlRateController();
+        assertEquals(2 * ControlRateController.INITIAL_INTERVAL, controller.update(1, 0));
+        assertEquals(4 * ControlRateController.INITIAL_INTERVAL, controller.update(1, 0));
+        assertEquals(ControlRateController.MAX_INTERVAL, controller.update(1, 0));
+        assertEquals(ControlRateController.MAX_INTERVAL, controller.update(1, 0));
+
+        controller.reset();
+        assertEquals(ControlRateController.INITIAL_INTERVAL, controller.getInterval());
+    }
+
+    @Test
+    public void recoversAfterStall() {
+        SimulatedLink link = new SimulatedLink(5);
+        ControlRateController controller = settle(link);
+        controller.update(10, 1000);
+        assertTrue(controller.getInterval() > ControlRateController.MIN_INTERVAL);
+        for (int i = 0; i < 100; i++)
+            link.step(controller);
+        assertEquals(ControlRateController.MIN_INTERVAL, controller.getInterval());
+    }
+
+    @Test
+    public void staysInBoundsForAnyInput() {
+        Random random = new Random(1);
+        ControlRateController controller = new ControlRateController();
+        for (int i = 0; i < 10000; i++)
+            assertInBounds(controller.update(random.nextInt(4) == 0 ? random.nextInt(64) : 0,
+                    random.nextInt(1000)));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LinkHealthMonitorTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void keepAliveTimesOutWellBeforeTheLinkIsDead() {
+        LinkHealthMonitor monitor = new LinkHealthMonitor();
+        assertEquals(2 * LinkHealthMonitor.DEFAULT_KEEP_ALIVE_INTERVAL, monitor.getKeepAliveTimeout());
+
+        monitor.configure(1000, 250, 3000);
+        assertEquals(1500, monitor.getKeepAliveTimeout());
+    }
+
+    @Test
+    public void missedKeepAliveIsRepeatedBeforeTheLinkIsDead() {
+        LinkHealthMonitor monitor = new LinkHealthMonitor();
+        monitor.reset(0);
+
+        long now = LinkHealthMonitor.DEFAULT_KEEP_ALIVE_INTERVAL * MS;
+        assertTrue(monitor.isKeepAliveDue(now));
+        monitor.keepAliveSent(now);
+
+        now += monitor.getKeepAliveTimeout() * MS;
+        monitor.keepAliveMissed();
+        assertEquals(LinkHealthMonitor.LINK_DEGRADED, monitor.getLinkState(now));
+        assertTrue(monitor.isKeepAliveDue(now));
+
+        now = LinkHealthMonitor.DEFAULT_DEAD_LINK_BUDGET * MS + 1;
+        assertEquals(LinkHealthMonitor.LINK_DEAD, monitor.getLinkState(now));
+    }
+}
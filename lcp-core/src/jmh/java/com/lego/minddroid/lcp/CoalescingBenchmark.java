@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Work of the sender for a burst of motor updates arriving faster than the
+ * link takes them. Queueing sends every update, the latest-value slots send
+ * only the last speed of each port.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CoalescingBenchmark {
+
+    private static final int PORTS = 3;
+
+    // updates per port before the sender wakes up
+    @Param({"1", "4", "16"})
+    public int burst;
+
+    private final LCPSendQueue sendQueue = new LCPSendQueue(64);
+    private final MotorCommandSlots motorSlots = new MotorCommandSlots();
+    private final FrameBenchmark.CountingOutputStream outputStream = new FrameBenchmark.CountingOutputStream();
+    private final LCPFrameWriter writer = new LCPFrameWriter(outputStream);
+    private final byte[] messageBuffer = new byte[LCPMessage.MOTOR_MESSAGE_LENGTH];
+    // changes the speeds of every burst, the slots don't send a speed twice
+    private int round = 0;
+
+    @Benchmark
+    public long queueEveryUpdate() throws IOException {
+        round++;
+        for (int update = 0; update < burst; update++) {
+            for (int motor = 0; motor < PORTS; motor++)
+                sendQueue.offer(LCPMessage.getMotorMessage(motor, (round + update) % 100));
+        }
+
+        byte[] message;
+        while ((message = sendQueue.poll()) != null)
+            writer.appendFrame(message, message.length);
+        writer.flush();
+        return writer.getFramesWritten();
+    }
+
+    @Benchmark
+    public long coalesceUpdates() throws IOException {
+        round++;
+        for (int update = 0; update < burst; update++) {
+            for (int motor = 0; motor < PORTS; motor++)
+                motorSlots.put(motor, (round + update) % 100);
+        }
+
+        for (int motor = 0; motor < PORTS; motor++) {
+            int speed = motorSlots.take(motor);
+            if (speed != MotorCommandSlots.NO_COMMAND) {
+                int length = LCPMessage.encodeMotorMessage(messageBuffer, 0, motor, speed);
+                writer.appendFrame(messageBuffer, length);
+            }
+        }
+        writer.flush();
+        return writer.getFramesWritten();
+    }
+
+}
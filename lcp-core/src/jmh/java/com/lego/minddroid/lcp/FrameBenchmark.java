@@ -0,0 +1,176 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Frame assembly on both sides of the link. Reading splits a stream of
+ * GET_OUTPUT_STATE replies delivered in packets of the given size, writing
+ * sends the frames of a control update. The legacy methods repeat the
+ * per-frame stream accesses used before the frame reader and writer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBenchmark {
+
+    private static final int FRAMES = 32;
+
+    // 1: worst case fragmentation, 64: a typical RFCOMM packet
+    @Param({"1", "64", "1024"})
+    public int packetSize;
+
+    private byte[] stream;
+    private PacketInputStream inputStream;
+    private final byte[] message = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+
+    private final byte[][] motorMessages = new byte[3][];
+    private final CountingOutputStream outputStream = new CountingOutputStream();
+    private final LCPFrameWriter writer = new LCPFrameWriter(outputStream);
+
+    @Setup
+    public void setUp() {
+        byte[] reply = new byte[OutputStateReply.MESSAGE_LENGTH];
+        reply[0] = LCPMessage.REPLY_COMMAND;
+        reply[1] = LCPMessage.GET_OUTPUT_STATE;
+        stream = new byte[FRAMES * (reply.length + 2)];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int start = frame * (reply.length + 2);
+            stream[start] = (byte) reply.length;
+            System.arraycopy(reply, 0, stream, start + 2, reply.length);
+        }
+        inputStream = new PacketInputStream(stream, packetSize);
+
+        for (int motor = 0; motor < motorMessages.length; motor++)
+            motorMessages[motor] = LCPMessage.getMotorMessage(motor, 75);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void legacyReadFrames(Blackhole blackhole) throws IOException {
+        inputStream.rewind();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int length = inputStream.read();
+            length = (inputStream.read() << 8) + length;
+            byte[] returnMessage = new byte[length];
+            // the legacy code relied on a single read returning the whole message
+            int read = 0;
+            while (read < length)
+                read += inputStream.read(returnMessage, read, length - read);
+            blackhole.consume(returnMessage);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void readFrames(Blackhole blackhole) throws IOException {
+        inputStream.rewind();
+        LCPFrameReader reader = new LCPFrameReader(inputStream);
+        for (int frame = 0; frame < FRAMES; frame++)
+            blackhole.consume(reader.readFrame(message));
+    }
+
+    @Benchmark
+    public long legacyWriteUpdate() throws IOException {
+        for (byte[] motorMessage : motorMessages) {
+            outputStream.write(motorMessage.length);
+            outputStream.write(motorMessage.length >> 8);
+            outputStream.write(motorMessage, 0, motorMessage.length);
+        }
+        return outputStream.writes;
+    }
+
+    @Benchmark
+    public long writeUpdate() throws IOException {
+        for (byte[] motorMessage : motorMessages)
+            writer.appendFrame(motorMessage, motorMessage.length);
+        writer.flush();
+        return outputStream.writes;
+    }
+
+    /**
+     * Delivers the bytes in packets of at most the given size like a bluetooth socket.
+     */
+    static class PacketInputStream extends InputStream {
+
+        private final byte[] data;
+        private final int packetSize;
+        private int position = 0;
+
+        PacketInputStream(byte[] data, int packetSize) {
+            this.data = data;
+            this.packetSize = packetSize;
+        }
+
+        void rewind() {
+            position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == data.length)
+                return -1;
+
+            int count = Math.min(Math.min(length, packetSize), data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    /**
+     * Discards the bytes, only the writes are counted, each one costs a system call on a socket.
+     */
+    static class CountingOutputStream extends OutputStream {
+
+        long writes = 0;
+
+        @Override
+        public void write(int value) {
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            writes++;
+        }
+    }
+
+}
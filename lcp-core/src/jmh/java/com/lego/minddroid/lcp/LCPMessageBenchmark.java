@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding of the messages sent most often: motor commands during driving
+ * and write commands during uploads. Compares the builders allocating a new
+ * array with the encoders writing into a reused buffer, run with -prof gc
+ * to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LCPMessageBenchmark {
+
+    // data of one upload chunk
+    private final byte[] data = new byte[58];
+    private final byte[] buffer = new byte[64];
+    private int speed = 0;
+
+    @Benchmark
+    public byte[] allocateMotorMessage() {
+        speed = (speed + 1) % 100;
+        return LCPMessage.getMotorMessage(1, speed);
+    }
+
+    @Benchmark
+    public byte[] encodeMotorMessage() {
+        speed = (speed + 1) % 100;
+        LCPMessage.encodeMotorMessage(buffer, 0, 1, speed);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] allocateSyncMotorMessage() {
+        speed = (speed + 1) % 100;
+        return LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_1, speed, 25);
+    }
+
+    @Benchmark
+    public byte[] encodeSyncMotorMessage() {
+        speed = (speed + 1) % 100;
+        LCPMessage.encodeSyncMotorMessage(buffer, 0, MotorCommandSlots.SYNC_MOTOR_1, speed, 25);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] startProgramMessage() {
+        // the name is encoded once, later calls copy the cached block
+        return LCPMessage.getStartProgramMessage("MINDdroid.rxe");
+    }
+
+    @Benchmark
+    public byte[] allocateWriteMessage() {
+        return LCPMessage.getWriteMessage(7, data, data.length);
+    }
+
+    @Benchmark
+    public byte[] encodeWriteMessage() {
+        LCPMessage.encodeWriteMessage(buffer, 0, 7, data, data.length);
+        return buffer;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding of the replies handled by the activity. The legacy methods repeat
+ * the index arithmetic, byte loop and regex used before the flyweight readers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReplyDecodeBenchmark {
+
+    private final byte[] outputState = new byte[OutputStateReply.MESSAGE_LENGTH];
+    private final byte[] firmware = new byte[FirmwareVersionReply.MESSAGE_LENGTH];
+    private final byte[] fileInfo = new byte[FileInfoReply.MESSAGE_LENGTH];
+
+    private final OutputStateReply outputStateReply = new OutputStateReply();
+    private final FirmwareVersionReply firmwareReply = new FirmwareVersionReply();
+    private final FileInfoReply fileInfoReply = new FileInfoReply();
+
+    @Setup
+    public void setUp() {
+        outputState[0] = LCPMessage.REPLY_COMMAND;
+        outputState[1] = LCPMessage.GET_OUTPUT_STATE;
+        outputState[21] = (byte) 0x68;
+        outputState[22] = (byte) 0x01;
+
+        firmware[0] = LCPMessage.REPLY_COMMAND;
+        firmware[1] = LCPMessage.GET_FIRMWARE_VERSION;
+        System.arraycopy(LCPMessage.FIRMWARE_VERSION_LEJOSMINDDROID, 0, firmware, 3, 4);
+
+        fileInfo[0] = LCPMessage.REPLY_COMMAND;
+        fileInfo[1] = LCPMessage.FIND_FIRST;
+        fileInfo[3] = 3;
+        byte[] name = "MINDdroid.rxe".getBytes();
+        System.arraycopy(name, 0, fileInfo, 4, name.length);
+    }
+
+    @Benchmark
+    public int legacyRotationCount() {
+        return byteToInt(outputState[21]) +
+            (byteToInt(outputState[22]) << 8) +
+            (byteToInt(outputState[23]) << 16) +
+            (byteToInt(outputState[24]) << 24);
+    }
+
+    @Benchmark
+    public int flyweightRotationCount() {
+        outputStateReply.wrap(outputState);
+        return outputStateReply.getRotationCount();
+    }
+
+    @Benchmark
+    public boolean legacyFirmwareCheck() {
+        for (int pos = 0; pos < 4; pos++) {
+            if (firmware[pos + 3] != LCPMessage.FIRMWARE_VERSION_LEJOSMINDDROID[pos])
+                return false;
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean flyweightFirmwareCheck() {
+        firmwareReply.wrap(firmware);
+        return firmwareReply.isLejosMindDroid();
+    }
+
+    @Benchmark
+    public void legacyFileInfo(Blackhole blackhole) {
+        String fileName = new String(fileInfo, 4, 20);
+        blackhole.consume(fileName.replaceAll("\0", ""));
+        blackhole.consume(byteToInt(fileInfo[3]));
+    }
+
+    @Benchmark
+    public void flyweightFileInfo(Blackhole blackhole) {
+        fileInfoReply.wrap(fileInfo);
+        blackhole.consume(fileInfoReply.getFileName());
+        blackhole.consume(fileInfoReply.getHandle());
+    }
+
+    private static int byteToInt(byte byteValue) {
+        int intValue = (byteValue & (byte) 0x7f);
+
+        if ((byteValue & (byte) 0x80) != 0)
+            intValue |= 0x80;
+
+        return intValue;
+    }
+
+}
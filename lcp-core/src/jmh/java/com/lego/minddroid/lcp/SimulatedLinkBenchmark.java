@@ -0,0 +1,117 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Requests over a SimulatedBrick with the latency and bandwidth of a
+ * bluetooth link. Waiting for every reply before sending the next request
+ * pays the round trip per request, requests in flight together pay it once.
+ * A motor update followed by a GET_OUTPUT_STATE measures the time until the
+ * brick has applied the update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimulatedLinkBenchmark {
+
+    private static final int REQUESTS = 4;
+
+    // one way latency in microseconds
+    @Param({"0", "15000", "40000"})
+    public long latency;
+
+    // bytes per second, 0 for unlimited
+    @Param({"0", "20000"})
+    public long bandwidth;
+
+    private MemoryTransport phoneSide;
+    private SimulatedBrick brick;
+    private LCPFrameWriter writer;
+    private LCPFrameReader reader;
+    private final byte[] request = LCPMessage.getOutputStateMessage(0);
+    private final byte[] reply = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+    private final byte[] motorBuffer = new byte[LCPMessage.MOTOR_MESSAGE_LENGTH];
+    private int speed = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        phoneSide = MemoryTransport.createPair();
+        brick = new SimulatedBrick(phoneSide.getPeer());
+        brick.setLinkTiming(latency, bandwidth);
+        brick.start();
+        writer = new LCPFrameWriter(phoneSide.getOutputStream());
+        reader = new LCPFrameReader(phoneSide.getInputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        brick.close();
+        phoneSide.close();
+    }
+
+    @Benchmark
+    public int sequentialRequests() throws IOException {
+        int length = 0;
+        for (int count = 0; count < REQUESTS; count++) {
+            writer.writeFrame(request);
+            length += reader.readFrame(reply);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int pipelinedRequests() throws IOException {
+        for (int count = 0; count < REQUESTS; count++)
+            writer.appendFrame(request, request.length);
+        writer.flush();
+
+        int length = 0;
+        for (int count = 0; count < REQUESTS; count++)
+            length += reader.readFrame(reply);
+        return length;
+    }
+
+    @Benchmark
+    public int motorUpdateApplied() throws IOException {
+        speed = speed % 100 + 1;
+        int length = LCPMessage.encodeSyncMotorMessage(motorBuffer, 0, MotorCommandSlots.SYNC_MOTOR_1, speed, 0);
+        writer.appendFrame(motorBuffer, length);
+        length = LCPMessage.encodeSyncMotorMessage(motorBuffer, 0, MotorCommandSlots.SYNC_MOTOR_2, speed, 0);
+        writer.appendFrame(motorBuffer, length);
+        writer.appendFrame(request, request.length);
+        writer.flush();
+        return reader.readFrame(reply);
+    }
+
+}
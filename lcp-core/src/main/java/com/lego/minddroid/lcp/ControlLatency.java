@@ -0,0 +1,149 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Follows control samples from the sensor event to the moment their motor
+ * commands leave the socket and feeds the time of every stage into a
+ * LatencyHistogram. Like the motor slots, only the latest sample is
+ * followed: a sample replaced by a newer one before it was sent isn't
+ * counted. All times are System.nanoTime() values.
+ *
+ * The stages:
+ *   SENSOR_AGE  sensor event until the control thread uses it for an update
+ *   HANDLER     update handed to the communicator until its handler takes it
+ *   SENDER      handler until the write carrying the commands has returned
+ *   WRITE       duration of that write alone
+ *   TOTAL       sensor event until the write has returned
+ */
+public class ControlLatency {
+
+    public static final int SENSOR_AGE = 0;
+    public static final int HANDLER = 1;
+    public static final int SENDER = 2;
+    public static final int WRITE = 3;
+    public static final int TOTAL = 4;
+
+    private static final String[] STAGE_NAMES = { "sensor age", "handler", "sender", "write", "total" };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+
+    // 0 when there's no sample in the stage
+    private volatile long sensorTime = 0;
+    private volatile long updateSensorTime = 0;
+    private volatile long updateTime = 0;
+    private volatile long queuedSensorTime = 0;
+    private volatile long queuedTime = 0;
+
+    public ControlLatency() {
+        for (int stage = 0; stage < histograms.length; stage++)
+            histograms[stage] = new LatencyHistogram();
+    }
+
+    /**
+     * Called for every new sensor value.
+     */
+    public void sensorChanged(long now) {
+        sensorTime = now;
+    }
+
+    /**
+     * Called when a control update computed from the latest sensor value is
+     * handed to the communicator.
+     */
+    public void controlUpdated(long now) {
+        long sensor = sensorTime;
+        if (sensor == 0)
+            return;
+
+        histograms[SENSOR_AGE].record(now - sensor);
+        updateSensorTime = sensor;
+        updateTime = now;
+    }
+
+    /**
+     * Called by the handler of the communicator before it puts the motor
+     * commands of an update into the slots. Only the first command of an
+     * update is counted.
+     */
+    public void commandQueued(long now) {
+        long update = updateTime;
+        if (update == 0)
+            return;
+
+        updateTime = 0;
+        histograms[HANDLER].record(now - update);
+        queuedSensorTime = updateSensorTime;
+        queuedTime = now;
+    }
+
+    /**
+     * Called by the sender after a write carrying motor commands.
+     * @param writeTime the duration of the write
+     */
+    public void commandWritten(long now, long writeTime) {
+        long queued = queuedTime;
+        if (queued == 0)
+            return;
+
+        queuedTime = 0;
+        histograms[SENDER].record(now - queued);
+        histograms[WRITE].record(writeTime);
+        histograms[TOTAL].record(now - queuedSensorTime);
+    }
+
+    /**
+     * Called by the sender when the slots suppressed the queued command,
+     * because the motors already run with that speed.
+     */
+    public void commandDropped() {
+        queuedTime = 0;
+    }
+
+    /**
+     * @param stage one of the stage constants
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * Starts again with empty histograms and without a followed sample.
+     */
+    public void reset() {
+        sensorTime = 0;
+        updateTime = 0;
+        queuedTime = 0;
+        for (LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int stage = 0; stage < histograms.length; stage++) {
+            if (stage > 0)
+                text.append('\n');
+            text.append(STAGE_NAMES[stage]).append(": ").append(histograms[stage]);
+        }
+        return text.toString();
+    }
+
+}
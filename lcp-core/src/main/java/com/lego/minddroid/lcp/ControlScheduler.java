@@ -0,0 +1,270 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the control step on its own thread at a fixed rate, independent of
+ * drawing. Sensor events trigger the step: an event arriving after a quiet
+ * time runs it at once, further events are collected until the next tick
+ * of the interval. Without sensor events the thread sleeps, as nothing
+ * would change. The ticks are laid out from the first step on, so a late
+ * step doesn't delay the following ones; after a pause of more than one
+ * interval the ticks start again from the next event.
+ *
+ * Two histograms follow the loop:
+ *   latency  the oldest collected sensor event until its step starts
+ *   jitter   the moment the step became due until it starts, due is the
+ *            tick or the event arriving after it
+ *
+ * The timing of the ticks is kept apart from the waiting, so it can be
+ * tested with simulated time. Offline check of the loop in real time with
+ * simulated sensor events, it fails when the jitter or the latency exceed
+ * their bounds:
+ *
+ *   java com.lego.minddroid.lcp.ControlScheduler [interval ms] [sensor Hz] [seconds]
+ */
+public class ControlScheduler implements Runnable {
+
+    private static final long MAX_JITTER = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Runnable step;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram jitter = new LatencyHistogram();
+
+    // guarded by this
+    private long interval;
+    private long eventTime = 0;
+    private Thread thread = null;
+    // only used by the thread running the steps
+    private long nextTick = 0;
+    private boolean phased = false;
+
+    /**
+     * @param step the control step, called on the thread of the scheduler
+     * @param interval the initial time between two steps in milliseconds
+     */
+    public ControlScheduler(Runnable step, long interval) {
+        this.step = step;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Changes the time between two steps, it applies from the next tick on.
+     * @param interval in milliseconds
+     */
+    public synchronized void setInterval(long interval) {
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * @return the time between two steps in milliseconds
+     */
+    public synchronized long getInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(interval);
+    }
+
+    /**
+     * Called for every new sensor value, the next tick runs the step.
+     * @param now the time of the event in System.nanoTime() units
+     */
+    public synchronized void sensorChanged(long now) {
+        if (eventTime == 0) {
+            eventTime = now;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Starts the thread running the steps, unless it's already running.
+     */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+
+        thread = new Thread(this, "ControlScheduler");
+        thread.setDaemon(true);
+        eventTime = 0;
+        phased = false;
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits until a running step has returned, so no
+     * step runs after this call. Stopping a stopped scheduler does nothing.
+     */
+    public void stop() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopped == null || stopped == Thread.currentThread())
+            return;
+
+        boolean interrupted = false;
+        while (stopped.isAlive()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return true between start() and stop()
+     */
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (true) {
+                        if (thread != Thread.currentThread())
+                            return;
+
+                        long due = getDueTime();
+                        if (due == 0)
+                            wait();
+                        else if (due - System.nanoTime() > 0)
+                            TimeUnit.NANOSECONDS.timedWait(this, due - System.nanoTime());
+                        else
+                            break;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            runStep(System.nanoTime());
+        }
+    }
+
+    /**
+     * @return the time the step for the collected sensor event becomes due:
+     * the next tick or the event, when it arrived after the tick or after a
+     * pause; 0 without sensor event
+     */
+    synchronized long getDueTime() {
+        if (eventTime == 0)
+            return 0;
+        return phased && nextTick - eventTime > 0 ? nextTick : eventTime;
+    }
+
+    /**
+     * Runs the step for the collected sensor event and lays out the next tick.
+     * Called by the thread of the scheduler once the step is due.
+     * @param start the time the step starts in System.nanoTime() units
+     */
+    void runStep(long start) {
+        long event;
+        long stepInterval;
+        synchronized (this) {
+            event = eventTime;
+            eventTime = 0;
+            stepInterval = interval;
+        }
+
+        if (phased && start - nextTick < stepInterval) {
+            jitter.record(start - Math.max(nextTick, event));
+        } else { // first step or after a pause
+            nextTick = start;
+            jitter.record(start - event);
+        }
+        latency.record(start - event);
+        phased = true;
+
+        step.run();
+        nextTick += stepInterval;
+    }
+
+    /**
+     * @return the oldest sensor event of a step until the step starts
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the moment a step became due until it starts
+     */
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Starts again with empty histograms.
+     */
+    public void reset() {
+        latency.reset();
+        jitter.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "latency: " + latency + "\njitter: " + jitter;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long interval = args.length > 0 ? Long.parseLong(args[0]) : 50;
+        double sensorRate = args.length > 1 ? Double.parseDouble(args[1]) : 50;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 3;
+
+        final long[] steps = new long[1];
+        ControlScheduler scheduler = new ControlScheduler(new Runnable() {
+            @Override
+            public void run() {
+                steps[0]++;
+            }
+        }, interval);
+        scheduler.start();
+
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / sensorRate);
+        long end = System.nanoTime() + (long) (TimeUnit.SECONDS.toNanos(1) * seconds);
+        for (long next = System.nanoTime(); next - end < 0; next += period) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            scheduler.sensorChanged(System.nanoTime());
+        }
+        scheduler.stop();
+
+        System.out.println(steps[0] + " steps, interval " + interval + " ms, sensor " + sensorRate + " Hz");
+        System.out.println(scheduler);
+
+        // an event waits for the next tick at most, plus the jitter
+        long maxLatency = TimeUnit.MILLISECONDS.toNanos(interval) + MAX_JITTER;
+        long jitter99 = scheduler.getJitter().getPercentile(99);
+        long latency99 = scheduler.getLatency().getPercentile(99);
+        if (jitter99 > MAX_JITTER || latency99 > maxLatency) {
+            System.out.println("FAILED: jitter p99 must stay below " + MAX_JITTER / 1000000.0
+                    + " ms, latency p99 below " + maxLatency / 1000000.0 + " ms");
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight reader for the replies to FIND_FIRST and FIND_NEXT.
+ */
+public class FileInfoReply extends LCPReplyReader {
+
+    public static final int MESSAGE_LENGTH = LCPCommands.FIND_FIRST.getReplyLength();
+
+    // file name: ASCIIZ string with maximum size of 20 bytes
+    private static final int NAME_POSITION = 4;
+    private static final int NAME_SIZE = 20;
+
+    @Override
+    public int getMinimumLength() {
+        return MESSAGE_LENGTH;
+    }
+
+    /**
+     * @return the handle for finding the next file
+     */
+    public int getHandle() {
+        return getUByte(3);
+    }
+
+    /**
+     * @return the file size in bytes
+     */
+    public int getFileSize() {
+        return getLong(24);
+    }
+
+    /**
+     * @return the number of characters of the file name
+     */
+    public int getFileNameLength() {
+        int start = offset + NAME_POSITION;
+        int length = 0;
+        while (length < NAME_SIZE && message[start + length] != 0)
+            length++;
+        return length;
+    }
+
+    /**
+     * Adds the encoded name to the cache, so starting or deleting the file
+     * later copies the block received here.
+     * @param fileName the name as returned by getFileName()
+     */
+    public void cacheFileName(FileNameCache cache, String fileName) {
+        cache.put(fileName, message, offset + NAME_POSITION);
+    }
+
+    /**
+     * @return the file name, only this allocates
+     */
+    public String getFileName() {
+        return new String(message, offset + NAME_POSITION, getFileNameLength(), StandardCharsets.ISO_8859_1);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of file names encoded as the 20 byte ASCIIZ blocks of
+ * the NXT file system. The names are validated once when they are encoded,
+ * afterwards a block is copied into a message with a single arraycopy.
+ * Shared by the threads composing messages, all methods are synchronized.
+ */
+public class FileNameCache {
+
+    // file name including the terminating 0
+    public static final int NAME_SIZE = 20;
+    public static final int MAX_NAME_LENGTH = NAME_SIZE - 1;
+
+    private final LinkedHashMap<String, byte[]> names;
+
+    /**
+     * @param capacity the maximum number of cached names, the least recently used ones are dropped
+     */
+    public FileNameCache(final int capacity) {
+        names = new LinkedHashMap<String, byte[]>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return true, when the NXT accepts the name: 1 to 19 ASCII characters
+     */
+    public static boolean isValid(String name) {
+        int length = name.length();
+        if (length == 0 || length > MAX_NAME_LENGTH)
+            return false;
+
+        for (int pos = 0; pos < length; pos++) {
+            char character = name.charAt(pos);
+            if (character == 0 || character > 0x7f)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the encoded name into the message.
+     * @throws IllegalArgumentException when the name isn't valid
+     */
+    public void copyName(String name, byte[] message, int offset) {
+        System.arraycopy(getBlock(name), 0, message, offset, NAME_SIZE);
+    }
+
+    /**
+     * Adds a name as received from the NXT, e.g. in the reply to FIND_FIRST.
+     * @param message buffer containing the ASCIIZ block
+     * @param offset position of the block in the buffer
+     */
+    public synchronized void put(String name, byte[] message, int offset) {
+        if (names.containsKey(name) || !isValid(name))
+            return;
+
+        byte[] block = new byte[NAME_SIZE];
+        System.arraycopy(message, offset, block, 0, NAME_SIZE);
+        names.put(name, block);
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * @return the encoded name, the cache owns the block so it must not be changed
+     * @throws IllegalArgumentException when the name isn't valid
+     */
+    synchronized byte[] getBlock(String name) {
+        byte[] block = names.get(name);
+        if (block != null)
+            return block;
+
+        if (!isValid(name))
+            throw new IllegalArgumentException("no valid NXT file name (1 to " + MAX_NAME_LENGTH + " ASCII characters): " + name);
+
+        // the rest of the block stays 0
+        block = new byte[NAME_SIZE];
+        for (int pos = 0; pos < name.length(); pos++)
+            block[pos] = (byte) name.charAt(pos);
+
+        names.put(name, block);
+        return block;
+    }
+
+}
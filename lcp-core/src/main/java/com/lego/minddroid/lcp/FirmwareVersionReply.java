@@ -0,0 +1,63 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Flyweight reader for the reply to GET_FIRMWARE_VERSION.
+ */
+public class FirmwareVersionReply extends LCPReplyReader {
+
+    public static final int MESSAGE_LENGTH = LCPCommands.GET_FIRMWARE_VERSION.getReplyLength();
+
+    @Override
+    public int getMinimumLength() {
+        return MESSAGE_LENGTH;
+    }
+
+    public int getProtocolMinor() {
+        return getUByte(3);
+    }
+
+    public int getProtocolMajor() {
+        return getUByte(4);
+    }
+
+    public int getFirmwareMinor() {
+        return getUByte(5);
+    }
+
+    public int getFirmwareMajor() {
+        return getUByte(6);
+    }
+
+    /**
+     * @return true, when the brick runs the leJOS firmware with the MINDdroid connector
+     */
+    public boolean isLejosMindDroid() {
+        byte[] code = LCPMessage.FIRMWARE_VERSION_LEJOSMINDDROID;
+        // the four version bytes are a signature here
+        for (int pos = 0; pos < code.length; pos++) {
+            if (message[offset + 3 + pos] != code[pos])
+                return false;
+        }
+        return true;
+    }
+
+}
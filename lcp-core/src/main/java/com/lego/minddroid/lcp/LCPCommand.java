@@ -0,0 +1,248 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Entry of the LCP command table: the type and opcode of a command and the
+ * layout of its request and reply. The lengths are computed once from the
+ * layouts, so messages can be checked without looking at every field.
+ * A layout lists the fields after the opcode (request) or after the status
+ * byte (reply). Strings and data have a fixed size, only the last field of
+ * a layout may be variable data with a maximum size.
+ */
+public final class LCPCommand {
+
+    // field kinds, strings and data carry their size in the upper bits
+    public static final int UBYTE = 1;
+    public static final int SBYTE = 2;
+    public static final int BOOL = 3;
+    public static final int UWORD = 4;
+    public static final int SWORD = 5;
+    public static final int ULONG = 6;
+    public static final int SLONG = 7;
+    public static final int STRING = 8;
+    public static final int DATA = 9;
+    public static final int VARIABLE_DATA = 10;
+
+    // command type, status and opcode around the fields
+    static final int REQUEST_HEADER = 2;
+    static final int REPLY_HEADER = 3;
+
+    private final String name;
+    private final boolean system;
+    private final byte opcode;
+
+    private final int[] requestFields;
+    private final int[] requestOffsets;
+    private final int requestLength;
+    private final int maxRequestLength;
+
+    private final int[] replyFields;
+    private final int[] replyOffsets;
+    private final int replyLength;
+    private final int maxReplyLength;
+
+    LCPCommand(String name, boolean system, byte opcode, int[] requestFields, int[] replyFields) {
+        this.name = name;
+        this.system = system;
+        this.opcode = opcode;
+
+        this.requestFields = requestFields;
+        this.requestOffsets = new int[requestFields.length];
+        this.requestLength = layout(requestFields, requestOffsets, REQUEST_HEADER);
+        this.maxRequestLength = requestLength + variableSize(requestFields);
+
+        this.replyFields = replyFields;
+        this.replyOffsets = new int[replyFields.length];
+        this.replyLength = layout(replyFields, replyOffsets, REPLY_HEADER);
+        this.maxReplyLength = replyLength + variableSize(replyFields);
+    }
+
+    /**
+     * @return a string field (ASCIIZ) of the given size including the terminating 0
+     */
+    public static int string(int size) {
+        return STRING | size << 8;
+    }
+
+    /**
+     * @return a raw data field of the given size
+     */
+    public static int data(int size) {
+        return DATA | size << 8;
+    }
+
+    /**
+     * @return a data field at the end of a message with up to the given size
+     */
+    public static int variableData(int maxSize) {
+        return VARIABLE_DATA | maxSize << 8;
+    }
+
+    public static int getKind(int field) {
+        return field & 0xff;
+    }
+
+    /**
+     * @return the size of a field in bytes, the maximum size for variable data
+     */
+    public static int getSize(int field) {
+        switch (getKind(field)) {
+            case UBYTE:
+            case SBYTE:
+            case BOOL:
+                return 1;
+            case UWORD:
+            case SWORD:
+                return 2;
+            case ULONG:
+            case SLONG:
+                return 4;
+            default:
+                return field >>> 8;
+        }
+    }
+
+    /**
+     * Computes the offsets of the fields.
+     * @return the length of the message without variable data
+     */
+    private static int layout(int[] fields, int[] offsets, int header) {
+        int position = header;
+        for (int index = 0; index < fields.length; index++) {
+            if (getKind(fields[index]) == VARIABLE_DATA) {
+                if (index != fields.length - 1)
+                    throw new IllegalArgumentException("variable data has to be the last field");
+                offsets[index] = position;
+                continue;
+            }
+            offsets[index] = position;
+            position += getSize(fields[index]);
+        }
+        return position;
+    }
+
+    private static int variableSize(int[] fields) {
+        if (fields.length == 0 || getKind(fields[fields.length - 1]) != VARIABLE_DATA)
+            return 0;
+        return getSize(fields[fields.length - 1]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true for system commands, false for direct commands
+     */
+    public boolean isSystemCommand() {
+        return system;
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return the command type byte for a request with or without reply
+     */
+    public byte getType(boolean replyRequired) {
+        if (system)
+            return replyRequired ? LCPMessage.SYSTEM_COMMAND_REPLY : LCPMessage.SYSTEM_COMMAND_NOREPLY;
+        return replyRequired ? LCPMessage.DIRECT_COMMAND_REPLY : LCPMessage.DIRECT_COMMAND_NOREPLY;
+    }
+
+    public int getRequestFieldCount() {
+        return requestFields.length;
+    }
+
+    public int getRequestField(int index) {
+        return requestFields[index];
+    }
+
+    /**
+     * @return the position of the field in the request
+     */
+    public int getRequestOffset(int index) {
+        return requestOffsets[index];
+    }
+
+    /**
+     * @return the length of the request, without variable data
+     */
+    public int getRequestLength() {
+        return requestLength;
+    }
+
+    public int getMaxRequestLength() {
+        return maxRequestLength;
+    }
+
+    public int getReplyFieldCount() {
+        return replyFields.length;
+    }
+
+    public int getReplyField(int index) {
+        return replyFields[index];
+    }
+
+    /**
+     * @return the position of the field in the reply
+     */
+    public int getReplyOffset(int index) {
+        return replyOffsets[index];
+    }
+
+    /**
+     * @return the length of the reply, without variable data
+     */
+    public int getReplyLength() {
+        return replyLength;
+    }
+
+    public int getMaxReplyLength() {
+        return maxReplyLength;
+    }
+
+    /**
+     * Checks type, opcode and length of a request.
+     */
+    public boolean isValidRequest(byte[] message, int offset, int length) {
+        if (length < requestLength || length > maxRequestLength)
+            return false;
+        return message[offset + 1] == opcode &&
+            (message[offset] == getType(true) || message[offset] == getType(false));
+    }
+
+    /**
+     * Checks type, opcode and length of a reply.
+     */
+    public boolean isValidReply(byte[] message, int offset, int length) {
+        if (length < replyLength || length > maxReplyLength)
+            return false;
+        return message[offset] == LCPMessage.REPLY_COMMAND && message[offset + 1] == opcode;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Table of the direct and system commands of the NXT firmware, see the
+ * LEGO MINDSTORMS Bluetooth Developer Kit, appendix 1 and 2.
+ * The comments list the fields of the request and the reply.
+ */
+public final class LCPCommands {
+
+    private static final int UBYTE = LCPCommand.UBYTE;
+    private static final int SBYTE = LCPCommand.SBYTE;
+    private static final int BOOL = LCPCommand.BOOL;
+    private static final int UWORD = LCPCommand.UWORD;
+    private static final int SWORD = LCPCommand.SWORD;
+    private static final int ULONG = LCPCommand.ULONG;
+    private static final int SLONG = LCPCommand.SLONG;
+    private static final int FILE_NAME = LCPCommand.string(20);
+
+    private static final int[] NONE = {};
+
+    private static final LCPCommand[] TABLE = new LCPCommand[256];
+    private static int count = 0;
+
+    // Direct commands
+
+    // file name
+    public static final LCPCommand START_PROGRAM = direct("START_PROGRAM", LCPMessage.START_PROGRAM,
+        fields(FILE_NAME), NONE);
+    public static final LCPCommand STOP_PROGRAM = direct("STOP_PROGRAM", LCPMessage.STOP_PROGRAM,
+        NONE, NONE);
+    // loop, file name
+    public static final LCPCommand PLAY_SOUND_FILE = direct("PLAY_SOUND_FILE", LCPMessage.PLAY_SOUND_FILE,
+        fields(BOOL, FILE_NAME), NONE);
+    // frequency in Hz, duration in ms
+    public static final LCPCommand PLAY_TONE = direct("PLAY_TONE", LCPMessage.PLAY_TONE,
+        fields(UWORD, UWORD), NONE);
+    // port, power, mode, regulation mode, turn ratio, run state, tacho limit
+    public static final LCPCommand SET_OUTPUT_STATE = direct("SET_OUTPUT_STATE", LCPMessage.SET_OUTPUT_STATE,
+        fields(UBYTE, SBYTE, UBYTE, UBYTE, SBYTE, UBYTE, ULONG), NONE);
+    // port, sensor type, sensor mode
+    public static final LCPCommand SET_INPUT_MODE = direct("SET_INPUT_MODE", LCPMessage.SET_INPUT_MODE,
+        fields(UBYTE, UBYTE, UBYTE), NONE);
+    // port
+    // port, power, mode, regulation mode, turn ratio, run state, tacho limit,
+    // tacho count, block tacho count, rotation count
+    public static final LCPCommand GET_OUTPUT_STATE = direct("GET_OUTPUT_STATE", LCPMessage.GET_OUTPUT_STATE,
+        fields(UBYTE),
+        fields(UBYTE, SBYTE, UBYTE, UBYTE, SBYTE, UBYTE, ULONG, SLONG, SLONG, SLONG));
+    // port
+    // port, valid, calibrated, sensor type, sensor mode, raw value,
+    // normalized value, scaled value, calibrated value
+    public static final LCPCommand GET_INPUT_VALUES = direct("GET_INPUT_VALUES", LCPMessage.GET_INPUT_VALUES,
+        fields(UBYTE),
+        fields(UBYTE, BOOL, BOOL, UBYTE, UBYTE, UWORD, UWORD, SWORD, SWORD));
+    // port
+    public static final LCPCommand RESET_SCALED_INPUT_VALUE = direct("RESET_SCALED_INPUT_VALUE", LCPMessage.RESET_SCALED_INPUT_VALUE,
+        fields(UBYTE), NONE);
+    // inbox, message size including the terminating 0, message
+    public static final LCPCommand MESSAGE_WRITE = direct("MESSAGE_WRITE", LCPMessage.MESSAGE_WRITE,
+        fields(UBYTE, UBYTE, LCPCommand.variableData(59)), NONE);
+    // port, relative to the last movement
+    public static final LCPCommand RESET_MOTOR_POSITION = direct("RESET_MOTOR_POSITION", LCPMessage.RESET_MOTOR_POSITION,
+        fields(UBYTE, BOOL), NONE);
+    // voltage in mV
+    public static final LCPCommand GET_BATTERY_LEVEL = direct("GET_BATTERY_LEVEL", LCPMessage.GET_BATTERY_LEVEL,
+        NONE, fields(UWORD));
+    public static final LCPCommand STOP_SOUND_PLAYBACK = direct("STOP_SOUND_PLAYBACK", LCPMessage.STOP_SOUND_PLAYBACK,
+        NONE, NONE);
+    // sleep time limit in ms
+    public static final LCPCommand KEEP_ALIVE = direct("KEEP_ALIVE", LCPMessage.KEEP_ALIVE,
+        NONE, fields(ULONG));
+    // port
+    // bytes ready
+    public static final LCPCommand LS_GET_STATUS = direct("LS_GET_STATUS", LCPMessage.LS_GET_STATUS,
+        fields(UBYTE), fields(UBYTE));
+    // port, tx data length, rx data length, tx data
+    public static final LCPCommand LS_WRITE = direct("LS_WRITE", LCPMessage.LS_WRITE,
+        fields(UBYTE, UBYTE, UBYTE, LCPCommand.variableData(16)), NONE);
+    // port
+    // bytes read, rx data padded with 0
+    public static final LCPCommand LS_READ = direct("LS_READ", LCPMessage.LS_READ,
+        fields(UBYTE), fields(UBYTE, LCPCommand.data(16)));
+    // file name
+    public static final LCPCommand GET_CURRENT_PROGRAM_NAME = direct("GET_CURRENT_PROGRAM_NAME", LCPMessage.GET_CURRENT_PROGRAM_NAME,
+        NONE, fields(FILE_NAME));
+    // remote inbox, local inbox, remove
+    // local inbox, message size, message padded with 0
+    public static final LCPCommand MESSAGE_READ = direct("MESSAGE_READ", LCPMessage.MESSAGE_READ,
+        fields(UBYTE, UBYTE, BOOL), fields(UBYTE, UBYTE, LCPCommand.data(59)));
+
+    // System commands
+
+    // file name
+    // handle, file size
+    public static final LCPCommand OPEN_READ = system("OPEN_READ", LCPMessage.OPEN_READ,
+        fields(FILE_NAME), fields(UBYTE, ULONG));
+    // file name, file size
+    // handle
+    public static final LCPCommand OPEN_WRITE = system("OPEN_WRITE", LCPMessage.OPEN_WRITE,
+        fields(FILE_NAME, ULONG), fields(UBYTE));
+    // handle, bytes to read
+    // handle, bytes read, data
+    public static final LCPCommand READ = system("READ", LCPMessage.READ,
+        fields(UBYTE, UWORD), fields(UBYTE, UWORD, LCPCommand.variableData(58)));
+    // handle, data
+    // handle, bytes written
+    public static final LCPCommand WRITE = system("WRITE", LCPMessage.WRITE,
+        fields(UBYTE, LCPCommand.variableData(61)), fields(UBYTE, UWORD));
+    // handle
+    // handle
+    public static final LCPCommand CLOSE = system("CLOSE", LCPMessage.CLOSE,
+        fields(UBYTE), fields(UBYTE));
+    // file name
+    // file name
+    public static final LCPCommand DELETE = system("DELETE", LCPMessage.DELETE,
+        fields(FILE_NAME), fields(FILE_NAME));
+    // file name with wildcards
+    // handle, file name, file size
+    public static final LCPCommand FIND_FIRST = system("FIND_FIRST", LCPMessage.FIND_FIRST,
+        fields(FILE_NAME), fields(UBYTE, FILE_NAME, ULONG));
+    // handle
+    // handle, file name, file size
+    public static final LCPCommand FIND_NEXT = system("FIND_NEXT", LCPMessage.FIND_NEXT,
+        fields(UBYTE), fields(UBYTE, FILE_NAME, ULONG));
+    // protocol minor, protocol major, firmware minor, firmware major
+    public static final LCPCommand GET_FIRMWARE_VERSION = system("GET_FIRMWARE_VERSION", LCPMessage.GET_FIRMWARE_VERSION,
+        NONE, fields(UBYTE, UBYTE, UBYTE, UBYTE));
+    // file name, file size
+    // handle
+    public static final LCPCommand OPEN_WRITE_LINEAR = system("OPEN_WRITE_LINEAR", LCPMessage.OPEN_WRITE_LINEAR,
+        fields(FILE_NAME, ULONG), fields(UBYTE));
+    // file name
+    // pointer to the file in flash
+    public static final LCPCommand OPEN_READ_LINEAR = system("OPEN_READ_LINEAR", LCPMessage.OPEN_READ_LINEAR,
+        fields(FILE_NAME), fields(ULONG));
+    // file name, file size
+    // handle
+    public static final LCPCommand OPEN_WRITE_DATA = system("OPEN_WRITE_DATA", LCPMessage.OPEN_WRITE_DATA,
+        fields(FILE_NAME, ULONG), fields(UBYTE));
+    // file name
+    // handle, available size
+    public static final LCPCommand OPEN_APPEND_DATA = system("OPEN_APPEND_DATA", LCPMessage.OPEN_APPEND_DATA,
+        fields(FILE_NAME), fields(UBYTE, ULONG));
+    // "Let's dance: SAMBA", only accepted over USB
+    // "Yes"
+    public static final LCPCommand BOOT = system("BOOT", LCPMessage.BOOT,
+        fields(LCPCommand.string(19)), fields(LCPCommand.string(4)));
+    // brick name
+    public static final LCPCommand SET_BRICK_NAME = system("SET_BRICK_NAME", LCPMessage.SET_BRICK_NAME,
+        fields(LCPCommand.string(16)), NONE);
+    // brick name, bluetooth address, bluetooth signal strength, free user flash
+    public static final LCPCommand GET_DEVICE_INFO = system("GET_DEVICE_INFO", LCPMessage.GET_DEVICE_INFO,
+        NONE, fields(LCPCommand.string(15), LCPCommand.data(7), ULONG, ULONG));
+    public static final LCPCommand DELETE_USER_FLASH = system("DELETE_USER_FLASH", LCPMessage.DELETE_USER_FLASH,
+        NONE, NONE);
+    // buffer number
+    // buffer number, bytes ready
+    public static final LCPCommand POLL_LENGTH = system("POLL_LENGTH", LCPMessage.POLL_LENGTH,
+        fields(UBYTE), fields(UBYTE, UBYTE));
+    // buffer number, command length
+    // buffer number, bytes read, data
+    public static final LCPCommand POLL = system("POLL", LCPMessage.POLL,
+        fields(UBYTE, UBYTE), fields(UBYTE, UBYTE, LCPCommand.variableData(60)));
+
+    private LCPCommands() {
+    }
+
+    /**
+     * @return the command with the given opcode or null for an unknown opcode
+     */
+    public static LCPCommand forOpcode(byte opcode) {
+        return TABLE[opcode & 0xff];
+    }
+
+    /**
+     * @return all commands of the table ordered by opcode
+     */
+    public static LCPCommand[] getCommands() {
+        LCPCommand[] commands = new LCPCommand[count];
+        int index = 0;
+        for (LCPCommand command : TABLE) {
+            if (command != null)
+                commands[index++] = command;
+        }
+        return commands;
+    }
+
+    private static int[] fields(int... fields) {
+        return fields;
+    }
+
+    private static LCPCommand direct(String name, byte opcode, int[] requestFields, int[] replyFields) {
+        return add(new LCPCommand(name, false, opcode, requestFields, replyFields));
+    }
+
+    private static LCPCommand system(String name, byte opcode, int[] requestFields, int[] replyFields) {
+        return add(new LCPCommand(name, true, opcode, requestFields, replyFields));
+    }
+
+    private static LCPCommand add(LCPCommand command) {
+        int index = command.getOpcode() & 0xff;
+        if (TABLE[index] != null)
+            throw new IllegalStateException("opcode used twice: " + command);
+
+        TABLE[index] = command;
+        count++;
+        return command;
+    }
+
+}
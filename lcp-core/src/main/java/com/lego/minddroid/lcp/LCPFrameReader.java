@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits the incoming byte stream into LCP frames. Every frame starts with
+ * a two byte length (little endian) followed by the message itself.
+ * The stream is read in bulk into a reusable ring buffer, so a length prefix
+ * or a message split over several bluetooth packets is reassembled here and
+ * several small frames arriving in one packet cost only one read.
+ */
+public class LCPFrameReader {
+
+    // has to be a power of two, much bigger than any LCP message
+    private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    public static final int MAX_FRAME_LENGTH = BUFFER_SIZE - 2;
+
+    private final InputStream inputStream;
+    private final byte[] ringBuffer = new byte[BUFFER_SIZE];
+
+    // running positions, only masked when accessing the buffer
+    private int readPosition = 0;
+    private int writePosition = 0;
+
+    private long framesRead = 0;
+    private long streamReads = 0;
+
+    private WireTraceRecorder trace = null;
+
+    public LCPFrameReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Blocks until a complete frame is available and copies the message
+     * without the length prefix into the given buffer.
+     * A message longer than the buffer is skipped, so the next call returns
+     * the following frame.
+     * @param message buffer for the message, should hold MAX_FRAME_LENGTH bytes
+     * @return the length of the message
+     */
+    public int readFrame(byte[] message) throws IOException {
+        int length = awaitFrame();
+        if (length > message.length) {
+            readPosition += length;
+            throw new IOException("LCP message too long: " + length);
+        }
+
+        copyOut(message, length);
+        if (trace != null)
+            trace.record(WireTraceRecorder.RECEIVED, message, length);
+        return length;
+    }
+
+    /**
+     * Blocks until a complete frame is available.
+     * @return the message without the length prefix
+     */
+    public byte[] readFrame() throws IOException {
+        int length = awaitFrame();
+        byte[] message = new byte[length];
+        copyOut(message, length);
+        if (trace != null)
+            trace.record(WireTraceRecorder.RECEIVED, message, length);
+        return message;
+    }
+
+    /**
+     * Records every frame read from now on, null stops recording.
+     */
+    public void setTrace(WireTraceRecorder trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return the number of frames delivered so far
+     */
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return the number of reads on the underlying stream so far
+     */
+    public long getStreamReads() {
+        return streamReads;
+    }
+
+    /**
+     * Fills the ring buffer until the length prefix and the complete message are available.
+     * @return the length of the message
+     */
+    private int awaitFrame() throws IOException {
+        fill(2);
+        int length = (ringBuffer[readPosition & BUFFER_MASK] & 0xff) |
+            ((ringBuffer[(readPosition + 1) & BUFFER_MASK] & 0xff) << 8);
+
+        if (length > MAX_FRAME_LENGTH)
+            throw new IOException("LCP frame too long: " + length);
+
+        fill(2 + length);
+        readPosition += 2;
+        return length;
+    }
+
+    private void copyOut(byte[] message, int length) {
+        int start = readPosition & BUFFER_MASK;
+        int firstPart = Math.min(length, BUFFER_SIZE - start);
+        System.arraycopy(ringBuffer, start, message, 0, firstPart);
+        System.arraycopy(ringBuffer, 0, message, firstPart, length - firstPart);
+        readPosition += length;
+        framesRead++;
+    }
+
+    /**
+     * Reads from the stream until at least the given number of bytes is buffered.
+     */
+    private void fill(int needed) throws IOException {
+        while (writePosition - readPosition < needed) {
+            int start = writePosition & BUFFER_MASK;
+            int free = BUFFER_SIZE - (writePosition - readPosition);
+            // read at most up to the physical end of the buffer
+            int count = inputStream.read(ringBuffer, start, Math.min(free, BUFFER_SIZE - start));
+            streamReads++;
+
+            if (count < 0)
+                throw new EOFException();
+
+            writePosition += count;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes LCP frames (two byte length followed by the message) into one
+ * preallocated buffer. Frames appended before the next flush are sent with
+ * a single write, so on RFCOMM they usually leave in one packet.
+ */
+public class LCPFrameWriter {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final OutputStream outputStream;
+    private final byte[] frameBuffer = new byte[BUFFER_SIZE];
+    private int bufferedLength = 0;
+
+    // written by the sending thread only, volatile for the statistics readers
+    private volatile long framesWritten = 0;
+    private volatile long streamWrites = 0;
+
+    private WireTraceRecorder trace = null;
+
+    public LCPFrameWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Encodes the message and sends it at once together with all frames
+     * appended before.
+     * @param message the message without length prefix
+     */
+    public void writeFrame(byte[] message) throws IOException {
+        appendFrame(message, message.length);
+        flush();
+    }
+
+    /**
+     * Encodes the message into the buffer without sending it. When the buffer
+     * can't hold the frame any more, the buffered frames are sent first.
+     * @param message the message without length prefix
+     * @param length the number of bytes of the message to send
+     */
+    public void appendFrame(byte[] message, int length) throws IOException {
+        if (length + 2 > BUFFER_SIZE)
+            throw new IOException("LCP message too long: " + length);
+
+        if (bufferedLength + length + 2 > BUFFER_SIZE)
+            flush();
+
+        frameBuffer[bufferedLength] = (byte) length;
+        frameBuffer[bufferedLength + 1] = (byte) (length >> 8);
+        System.arraycopy(message, 0, frameBuffer, bufferedLength + 2, length);
+        bufferedLength += length + 2;
+        framesWritten++;
+
+        if (trace != null)
+            trace.record(WireTraceRecorder.SENT, message, length);
+    }
+
+    /**
+     * Records every frame appended from now on, null stops recording.
+     */
+    public void setTrace(WireTraceRecorder trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Sends all appended frames with a single write.
+     */
+    public void flush() throws IOException {
+        if (bufferedLength == 0)
+            return;
+
+        // reset first, so a failed write doesn't resend stale frames
+        int length = bufferedLength;
+        bufferedLength = 0;
+        outputStream.write(frameBuffer, 0, length);
+        streamWrites++;
+    }
+
+    /**
+     * @return true, when there are frames waiting for the next flush
+     */
+    public boolean hasPendingFrames() {
+        return bufferedLength > 0;
+    }
+
+    /**
+     * @return the number of frames encoded so far
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * @return the number of writes on the underlying stream so far
+     */
+    public long getStreamWrites() {
+        return streamWrites;
+    }
+
+}
@@ -17,12 +17,13 @@
  *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
  **/
 
-package com.lego.minddroid;
+package com.lego.minddroid.lcp;
 
 
 /**
  * Class for composing the proper messages for simple
- * communication over bluetooth
+ * communication over bluetooth. The get methods return a new array, the
+ * encode methods write into a given buffer for allocation free sending.
  */
 public class LCPMessage {
 
@@ -98,22 +99,43 @@ public class LCPMessage {
     public static final byte UNDEFINED_ERROR = (byte) 0x8A;
     public static final byte NOT_IMPLEMENTED = (byte) 0xFD;
 
+    // Regulation modes of SET_OUTPUT_STATE
+    public static final byte REGULATION_MODE_IDLE = 0x00;
+    public static final byte REGULATION_MODE_MOTOR_SPEED = 0x01;
+    public static final byte REGULATION_MODE_MOTOR_SYNC = 0x02;
+
     // Firmware codes
     public static byte[] FIRMWARE_VERSION_LEJOSMINDDROID = {0x6c, 0x4d, 0x49, 0x64};
 
+    // Encoded file names shared by all messages carrying a file name
+    public static final FileNameCache FILE_NAMES = new FileNameCache(64);
+
+    // Message lengths for the encode methods
+    public static final int BEEP_MESSAGE_LENGTH = 6;
+    public static final int MOTOR_MESSAGE_LENGTH = 12;
+    public static final int KEEP_ALIVE_MESSAGE_LENGTH = 2;
+
     public static byte[] getBeepMessage(int frequency, int duration) {
-        byte[] message = new byte[6];
+        byte[] message = new byte[BEEP_MESSAGE_LENGTH];
+        encodeBeepMessage(message, 0, frequency, duration);
+        return message;
+    }
 
-        message[0] = DIRECT_COMMAND_NOREPLY;
-        message[1] = PLAY_TONE;
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     */
+    public static int encodeBeepMessage(byte[] buffer, int offset, int frequency, int duration) {
+        buffer[offset] = DIRECT_COMMAND_NOREPLY;
+        buffer[offset + 1] = PLAY_TONE;
         // Frequency for the tone, Hz (UWORD); Range: 200-14000 Hz
-        message[2] = (byte) frequency;
-        message[3] = (byte) (frequency >> 8);
+        buffer[offset + 2] = (byte) frequency;
+        buffer[offset + 3] = (byte) (frequency >> 8);
         // Duration of the tone, ms (UWORD)
-        message[4] = (byte) duration;
-        message[5] = (byte) (duration >> 8);
+        buffer[offset + 4] = (byte) duration;
+        buffer[offset + 5] = (byte) (duration >> 8);
 
-        return message;
+        return BEEP_MESSAGE_LENGTH;
     }
 
     public static byte[] getActionMessage(int actionNr) {
@@ -126,55 +148,106 @@ public class LCPMessage {
     }
 
     public static byte[] getMotorMessage(int motor, int speed) {
-        byte[] message = new byte[12];
+        byte[] message = new byte[MOTOR_MESSAGE_LENGTH];
+        encodeMotorMessage(message, 0, motor, speed);
+        return message;
+    }
 
-        message[0] = DIRECT_COMMAND_NOREPLY;
-        message[1] = SET_OUTPUT_STATE;
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     */
+    public static int encodeMotorMessage(byte[] buffer, int offset, int motor, int speed) {
+        buffer[offset] = DIRECT_COMMAND_NOREPLY;
+        buffer[offset + 1] = SET_OUTPUT_STATE;
         // Output port
-        message[2] = (byte) motor;
+        buffer[offset + 2] = (byte) motor;
 
         if (speed == 0) {
-            message[3] = 0;
-            message[4] = 0;
-            message[5] = 0;
-            message[6] = 0;
-            message[7] = 0;
+            buffer[offset + 3] = 0;
+            buffer[offset + 4] = 0;
+            buffer[offset + 5] = 0;
+            buffer[offset + 6] = 0;
+            buffer[offset + 7] = 0;
 
         } else {
             // Power set option (Range: -100 - 100)
-            message[3] = (byte) speed;
+            buffer[offset + 3] = (byte) speed;
             // Mode byte (Bit-field): MOTORON + BREAK
-            message[4] = 0x03;
+            buffer[offset + 4] = 0x03;
             // Regulation mode: REGULATION_MODE_MOTOR_SPEED
-            message[5] = 0x01;
+            buffer[offset + 5] = REGULATION_MODE_MOTOR_SPEED;
             // Turn Ratio (SBYTE; -100 - 100)
-            message[6] = 0x00;
+            buffer[offset + 6] = 0x00;
             // RunState: MOTOR_RUN_STATE_RUNNING
-            message[7] = 0x20;
+            buffer[offset + 7] = 0x20;
         }
 
         // TachoLimit: run forever
-        message[8] = 0;
-        message[9] = 0;
-        message[10] = 0;
-        message[11] = 0;
-
-        return message;
+        buffer[offset + 8] = 0;
+        buffer[offset + 9] = 0;
+        buffer[offset + 10] = 0;
+        buffer[offset + 11] = 0;
 
+        return MOTOR_MESSAGE_LENGTH;
     }
 
     public static byte[] getMotorMessage(int motor, int speed, int end) {
-        byte[] message = getMotorMessage(motor, speed);
+        byte[] message = new byte[MOTOR_MESSAGE_LENGTH];
+        encodeMotorMessage(message, 0, motor, speed, end);
+        return message;
+    }
+
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     */
+    public static int encodeMotorMessage(byte[] buffer, int offset, int motor, int speed, int end) {
+        encodeMotorMessage(buffer, offset, motor, speed);
 
         // TachoLimit
-        message[8] = (byte) end;
-        message[9] = (byte) (end >> 8);
-        message[10] = (byte) (end >> 16);
-        message[11] = (byte) (end >> 24);
+        buffer[offset + 8] = (byte) end;
+        buffer[offset + 9] = (byte) (end >> 8);
+        buffer[offset + 10] = (byte) (end >> 16);
+        buffer[offset + 11] = (byte) (end >> 24);
+
+        return MOTOR_MESSAGE_LENGTH;
+    }
 
+    /**
+     * Message for one of two motors running synchronized, e.g. the drive motors.
+     * Both motors have to get the same speed and turn ratio.
+     * @param turnRatio 0: both motors run the same speed, 50: one motor stops,
+     *        100: the motors run in opposite directions. For positive values
+     *        the motor with the higher port number runs slower.
+     */
+    public static byte[] getSyncMotorMessage(int motor, int speed, int turnRatio) {
+        byte[] message = new byte[MOTOR_MESSAGE_LENGTH];
+        encodeSyncMotorMessage(message, 0, motor, speed, turnRatio);
         return message;
     }
 
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     * @see #getSyncMotorMessage(int, int, int)
+     */
+    public static int encodeSyncMotorMessage(byte[] buffer, int offset, int motor, int speed, int turnRatio) {
+        encodeMotorMessage(buffer, offset, motor, speed);
+
+        if (speed != 0) {
+            // Mode byte (Bit-field): MOTORON + BREAK + REGULATED, the brick
+            // ignores the regulation mode of unregulated motors
+            buffer[offset + 4] = 0x07;
+            // Regulation mode: REGULATION_MODE_MOTOR_SYNC
+            buffer[offset + 5] = REGULATION_MODE_MOTOR_SYNC;
+            // Turn Ratio (SBYTE; -100 - 100)
+            buffer[offset + 6] = (byte) turnRatio;
+        }
+
+        return MOTOR_MESSAGE_LENGTH;
+    }
+
     public static byte[] getResetMessage(int motor) {
         byte[] message = new byte[4];
 
@@ -194,11 +267,8 @@ public class LCPMessage {
         message[0] = DIRECT_COMMAND_NOREPLY;
         message[1] = START_PROGRAM;
 
-        // copy programName and end with 0 delimiter
-        for (int pos = 0; pos < programName.length(); pos++)
-            message[2 + pos] = (byte) programName.charAt(pos);
-
-        message[programName.length() + 2] = 0;
+        // copy programName, the block ends with 0 delimiters
+        FILE_NAMES.copyName(programName, message, 2);
 
         return message;
     }
@@ -221,6 +291,23 @@ public class LCPMessage {
         return message;
     }
 
+    public static byte[] getKeepAliveMessage() {
+        byte[] message = new byte[KEEP_ALIVE_MESSAGE_LENGTH];
+        encodeKeepAliveMessage(message, 0);
+        return message;
+    }
+
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     */
+    public static int encodeKeepAliveMessage(byte[] buffer, int offset) {
+        buffer[offset] = DIRECT_COMMAND_REPLY;
+        buffer[offset + 1] = KEEP_ALIVE;
+
+        return KEEP_ALIVE_MESSAGE_LENGTH;
+    }
+
     public static byte[] getOutputStateMessage(int motor) {
         byte[] message = new byte[3];
 
@@ -255,11 +342,8 @@ public class LCPMessage {
         if (findFirst) {
             message[1] = FIND_FIRST;
 
-            // copy searchString and end with 0 delimiter
-            for (int pos = 0; pos < searchString.length(); pos++)
-                message[2 + pos] = (byte) searchString.charAt(pos);
-
-            message[searchString.length() + 2] = 0;
+            // copy searchString, the block ends with 0 delimiters
+            FILE_NAMES.copyName(searchString, message, 2);
 
         } else {
             message[1] = FIND_NEXT;
@@ -275,11 +359,8 @@ public class LCPMessage {
         message[0] = SYSTEM_COMMAND_REPLY;
         message[1] = OPEN_WRITE;
 
-        // copy programName and end with 0 delimiter
-        for (int pos = 0; pos < fileName.length(); pos++)
-            message[2 + pos] = (byte) fileName.charAt(pos);
-
-        message[fileName.length() + 2] = 0;
+        // copy programName, the block ends with 0 delimiters
+        FILE_NAMES.copyName(fileName, message, 2);
         // copy file size
         message[22] = (byte) fileLength;
         message[23] = (byte) (fileLength >>> 8);
@@ -294,26 +375,31 @@ public class LCPMessage {
         message[0] = SYSTEM_COMMAND_REPLY;
         message[1] = DELETE;
 
-        // copy programName and end with 0 delimiter
-        for (int pos = 0; pos < fileName.length(); pos++)
-            message[2 + pos] = (byte) fileName.charAt(pos);
-
-        message[fileName.length() + 2] = 0;
+        // copy programName, the block ends with 0 delimiters
+        FILE_NAMES.copyName(fileName, message, 2);
         return message;
     }
 
     public static byte[] getWriteMessage(int handle, byte[] data, int dataLength) {
         byte[] message = new byte[dataLength + 3];
+        encodeWriteMessage(message, 0, handle, data, dataLength);
+        return message;
+    }
 
-        message[0] = SYSTEM_COMMAND_REPLY;
-        message[1] = WRITE;
+    /**
+     * Writes the message into the buffer at the given offset, nothing is allocated.
+     * @return the length of the message
+     */
+    public static int encodeWriteMessage(byte[] buffer, int offset, int handle, byte[] data, int dataLength) {
+        buffer[offset] = SYSTEM_COMMAND_REPLY;
+        buffer[offset + 1] = WRITE;
 
         // copy handle
-        message[2] = (byte) handle;
+        buffer[offset + 2] = (byte) handle;
         // copy data
-        System.arraycopy(data, 0, message, 3, dataLength);
+        System.arraycopy(data, 0, buffer, offset + 3, dataLength);
 
-        return message;
+        return dataLength + 3;
     }
 
     public static byte[] getCloseMessage(int handle) {
@@ -0,0 +1,127 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight reader for the reply of any command of the table. The fields
+ * are addressed by their index in the reply layout of the command.
+ */
+public class LCPReplyFields extends LCPReplyReader {
+
+    private LCPCommand command;
+
+    /**
+     * Looks up the command of the reply and checks the reply against its entry.
+     * @return false, when the opcode is unknown or the reply isn't valid
+     */
+    @Override
+    public boolean wrap(byte[] message, int offset, int length) {
+        if (length < LCPCommand.REPLY_HEADER)
+            return false;
+
+        LCPCommand command = LCPCommands.forOpcode(message[offset + 1]);
+        if (command == null || !command.isValidReply(message, offset, length))
+            return false;
+
+        this.command = command;
+        this.message = message;
+        this.offset = offset;
+        this.length = length;
+        return true;
+    }
+
+    @Override
+    public int getMinimumLength() {
+        return LCPCommand.REPLY_HEADER;
+    }
+
+    public LCPCommand getCommandInfo() {
+        return command;
+    }
+
+    /**
+     * @return the value of a numeric field, ULONG values are returned unsigned
+     */
+    public long getInt(int index) {
+        int field = command.getReplyField(index);
+        int position = command.getReplyOffset(index);
+        switch (LCPCommand.getKind(field)) {
+            case LCPCommand.UBYTE:
+            case LCPCommand.BOOL:
+                return getUByte(position);
+            case LCPCommand.SBYTE:
+                return getSByte(position);
+            case LCPCommand.UWORD:
+                return getUByte(position) | getUByte(position + 1) << 8;
+            case LCPCommand.SWORD:
+                return (short) (getUByte(position) | getUByte(position + 1) << 8);
+            case LCPCommand.ULONG:
+                return getLong(position) & 0xffffffffL;
+            case LCPCommand.SLONG:
+                return getLong(position);
+            default:
+                throw new IllegalArgumentException(command + " field " + index + " isn't numeric");
+        }
+    }
+
+    public boolean getBoolean(int index) {
+        return getInt(index) != 0;
+    }
+
+    /**
+     * @return the characters of a string field up to the terminating 0
+     */
+    public String getString(int index) {
+        int field = command.getReplyField(index);
+        if (LCPCommand.getKind(field) != LCPCommand.STRING)
+            throw new IllegalArgumentException(command + " field " + index + " isn't a string");
+
+        int start = offset + command.getReplyOffset(index);
+        int size = LCPCommand.getSize(field);
+        int length = 0;
+        while (length < size && message[start + length] != 0)
+            length++;
+        return new String(message, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the position of a data field in the wrapped buffer, for reading it in place
+     */
+    public int getDataOffset(int index) {
+        return offset + command.getReplyOffset(index);
+    }
+
+    /**
+     * @return the size of a data field, the received size for variable data
+     */
+    public int getDataLength(int index) {
+        int field = command.getReplyField(index);
+        if (LCPCommand.getKind(field) == LCPCommand.VARIABLE_DATA)
+            return length - command.getReplyOffset(index);
+        return LCPCommand.getSize(field);
+    }
+
+    public byte[] getBuffer() {
+        return message;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Base of the flyweight readers for LCP replies. A reader is wrapped around
+ * a received message and reads its fields in place, so one reader instance
+ * can be reused for every reply of its kind without copying or allocating.
+ */
+public abstract class LCPReplyReader {
+
+    protected byte[] message;
+    protected int offset;
+    protected int length;
+
+    /**
+     * Points the reader to the reply, the buffer is neither copied nor changed.
+     * @param message buffer containing the reply without length prefix
+     * @param offset position of the reply in the buffer
+     * @param length length of the reply
+     * @return false, when the reply is too short for this reader
+     */
+    public boolean wrap(byte[] message, int offset, int length) {
+        if (length < getMinimumLength())
+            return false;
+
+        this.message = message;
+        this.offset = offset;
+        this.length = length;
+        return true;
+    }
+
+    public boolean wrap(byte[] message) {
+        return wrap(message, 0, message.length);
+    }
+
+    /**
+     * @return the minimum length of a valid reply
+     */
+    public abstract int getMinimumLength();
+
+    /**
+     * @return the command the reply belongs to
+     */
+    public byte getCommand() {
+        return message[offset + 1];
+    }
+
+    /**
+     * @return the status of the reply, 0 means success
+     */
+    public int getStatus() {
+        return message[offset + 2] & 0xff;
+    }
+
+    protected int getUByte(int position) {
+        return message[offset + position] & 0xff;
+    }
+
+    protected int getSByte(int position) {
+        return message[offset + position];
+    }
+
+    /**
+     * @return the little endian 32 bit value at the position of the reply
+     */
+    protected int getLong(int position) {
+        int start = offset + position;
+        return (message[start] & 0xff) |
+            ((message[start + 1] & 0xff) << 8) |
+            ((message[start + 2] & 0xff) << 16) |
+            ((message[start + 3] & 0xff) << 24);
+    }
+
+}
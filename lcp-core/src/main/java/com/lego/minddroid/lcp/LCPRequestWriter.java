@@ -0,0 +1,190 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Encodes any command of the table into a caller supplied buffer.
+ * The fields are put in the order of the request layout, every value is
+ * checked against the kind of its field:
+ *
+ *   int length = writer.begin(buffer, 0, LCPCommands.GET_INPUT_VALUES, true)
+ *       .putInt(port)
+ *       .finish();
+ *
+ * A writer can be reused for any number of messages, it doesn't allocate.
+ */
+public final class LCPRequestWriter {
+
+    private byte[] buffer;
+    private int offset;
+    private LCPCommand command;
+    private int fieldIndex;
+    private int position;
+
+    /**
+     * Writes type and opcode and starts with the first field of the request.
+     */
+    public LCPRequestWriter begin(byte[] buffer, int offset, LCPCommand command, boolean replyRequired) {
+        if (buffer.length - offset < command.getRequestLength())
+            throw new IllegalArgumentException("buffer too small for " + command);
+
+        this.buffer = buffer;
+        this.offset = offset;
+        this.command = command;
+        this.fieldIndex = 0;
+        this.position = offset + LCPCommand.REQUEST_HEADER;
+
+        buffer[offset] = command.getType(replyRequired);
+        buffer[offset + 1] = command.getOpcode();
+        return this;
+    }
+
+    /**
+     * Puts a numeric field (UBYTE, SBYTE, BOOL, UWORD, SWORD, ULONG, SLONG).
+     * @param value the value, it has to be in the range of the field
+     */
+    public LCPRequestWriter putInt(long value) {
+        int field = nextField();
+        int size = LCPCommand.getSize(field);
+        long min;
+        long max;
+        switch (LCPCommand.getKind(field)) {
+            case LCPCommand.UBYTE:
+                min = 0;
+                max = 0xff;
+                break;
+            case LCPCommand.SBYTE:
+                min = Byte.MIN_VALUE;
+                max = Byte.MAX_VALUE;
+                break;
+            case LCPCommand.BOOL:
+                min = 0;
+                max = 1;
+                break;
+            case LCPCommand.UWORD:
+                min = 0;
+                max = 0xffff;
+                break;
+            case LCPCommand.SWORD:
+                min = Short.MIN_VALUE;
+                max = Short.MAX_VALUE;
+                break;
+            case LCPCommand.ULONG:
+                min = 0;
+                max = 0xffffffffL;
+                break;
+            case LCPCommand.SLONG:
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+                break;
+            default:
+                throw new IllegalStateException(fieldName() + " isn't numeric");
+        }
+        if (value < min || value > max)
+            throw new IllegalArgumentException(fieldName() + " out of range: " + value);
+
+        // little endian
+        for (int pos = 0; pos < size; pos++)
+            buffer[position + pos] = (byte) (value >> (8 * pos));
+        position += size;
+        fieldIndex++;
+        return this;
+    }
+
+    public LCPRequestWriter putBoolean(boolean value) {
+        return putInt(value ? 1 : 0);
+    }
+
+    /**
+     * Puts a string field, the rest of the field is filled with 0.
+     * @param value ASCII characters, at most the size of the field minus one
+     */
+    public LCPRequestWriter putString(String value) {
+        int field = nextField();
+        if (LCPCommand.getKind(field) != LCPCommand.STRING)
+            throw new IllegalStateException(fieldName() + " isn't a string");
+
+        int size = LCPCommand.getSize(field);
+        int length = value.length();
+        if (length > size - 1)
+            throw new IllegalArgumentException(fieldName() + " longer than " + (size - 1) + " characters: " + value);
+
+        for (int pos = 0; pos < length; pos++) {
+            char character = value.charAt(pos);
+            if (character > 0x7f)
+                throw new IllegalArgumentException(fieldName() + " isn't ASCII: " + value);
+            buffer[position + pos] = (byte) character;
+        }
+        for (int pos = length; pos < size; pos++)
+            buffer[position + pos] = 0;
+
+        position += size;
+        fieldIndex++;
+        return this;
+    }
+
+    /**
+     * Puts a data field. Fixed size data is filled up with 0, variable data ends the message.
+     */
+    public LCPRequestWriter putData(byte[] data, int dataOffset, int length) {
+        int field = nextField();
+        int kind = LCPCommand.getKind(field);
+        int size = LCPCommand.getSize(field);
+        if (kind != LCPCommand.DATA && kind != LCPCommand.VARIABLE_DATA)
+            throw new IllegalStateException(fieldName() + " isn't data");
+        if (length > size)
+            throw new IllegalArgumentException(fieldName() + " longer than " + size + " bytes: " + length);
+        if (position + length > buffer.length)
+            throw new IllegalArgumentException("buffer too small for " + command);
+
+        System.arraycopy(data, dataOffset, buffer, position, length);
+        if (kind == LCPCommand.DATA) {
+            for (int pos = length; pos < size; pos++)
+                buffer[position + pos] = 0;
+            length = size;
+        }
+
+        position += length;
+        fieldIndex++;
+        return this;
+    }
+
+    /**
+     * @return the length of the request
+     */
+    public int finish() {
+        if (fieldIndex != command.getRequestFieldCount())
+            throw new IllegalStateException(command + " needs " + command.getRequestFieldCount() + " fields, got " + fieldIndex);
+        return position - offset;
+    }
+
+    private int nextField() {
+        if (command == null)
+            throw new IllegalStateException("begin() wasn't called");
+        if (fieldIndex >= command.getRequestFieldCount())
+            throw new IllegalStateException(command + " has only " + command.getRequestFieldCount() + " fields");
+        return command.getRequestField(fieldIndex);
+    }
+
+    private String fieldName() {
+        return command + " field " + fieldIndex;
+    }
+
+}
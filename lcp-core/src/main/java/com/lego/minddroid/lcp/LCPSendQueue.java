@@ -0,0 +1,90 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for handing over messages from exactly one
+ * producer thread (the handler of the communicator) to exactly one
+ * consumer thread (the sender of the communicator).
+ * Neither side ever blocks: a full queue rejects the message.
+ */
+public class LCPSendQueue {
+
+    private final byte[][] slots;
+    private final int mask;
+
+    // next position to poll, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next position to offer, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued messages, has to be a power of two
+     */
+    public LCPSendQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity has to be a power of two");
+
+        slots = new byte[capacity][];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Called by the producer only.
+     * @return false, when the queue is full and the message was not queued
+     */
+    public boolean offer(byte[] message) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == slots.length)
+            return false;
+
+        slots[(int) currentTail & mask] = message;
+        // publishes the slot to the consumer
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Called by the consumer only.
+     * @return the oldest message or null when the queue is empty
+     */
+    public byte[] poll() {
+        long currentHead = head.get();
+        if (currentHead == tail.get())
+            return null;
+
+        int index = (int) currentHead & mask;
+        byte[] message = slots[index];
+        slots[index] = null;
+        // frees the slot for the producer
+        head.lazySet(currentHead + 1);
+        return message;
+    }
+
+    /**
+     * @return the number of queued messages, only a snapshot when called concurrently
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+}
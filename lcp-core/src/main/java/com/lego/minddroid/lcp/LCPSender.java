@@ -0,0 +1,265 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the motor speeds and messages queued by the communicator. Everything found
+ * at once (e.g. the two motor speeds of one control update) is coalesced
+ * into a single write. While a write is blocked, the producer keeps going:
+ * messages wait in the queue and newer motor speeds replace older ones in
+ * their slots. The thread is terminated on closing of the connection or
+ * on a send error.
+ */
+public class LCPSender extends Thread {
+
+    /**
+     * Queued after the stop commands, the sender writes everything before
+     * it and lets the listener close the connection.
+     */
+    public static final byte[] DISCONNECT_REQUEST = new byte[0];
+
+    /**
+     * Called on the thread of the sender.
+     */
+    public interface Listener {
+
+        /**
+         * A write failed while the sender was running.
+         */
+        void sendFailed(IOException e);
+
+        /**
+         * All messages before the DISCONNECT_REQUEST were written.
+         */
+        void disconnectRequested();
+    }
+
+    private final LCPFrameWriter writer;
+    private final LCPSendQueue sendQueue;
+    private final MotorCommandSlots motorSlots;
+    private final Listener listener;
+    // scratch buffer for the messages composed by this thread
+    private final byte[] messageBuffer = new byte[LCPMessage.MOTOR_MESSAGE_LENGTH];
+    private volatile ControlLatency controlLatency = new ControlLatency();
+    private volatile boolean running = true;
+    private volatile boolean keepAliveRequested = false;
+    private volatile boolean stopRequested = false;
+    // running average of the write time
+    private volatile long writeTime = 0;
+    private volatile boolean writing = false;
+    // motor commands were appended since the last write
+    private boolean motorCommandsPending = false;
+
+    /**
+     * @param sendQueue filled by exactly one producer, the sender is its consumer
+     * @param motorSlots the latest speed of every motor
+     */
+    public LCPSender(String name, LCPFrameWriter writer, LCPSendQueue sendQueue,
+                     MotorCommandSlots motorSlots, Listener listener) {
+        super(name);
+        this.writer = writer;
+        this.sendQueue = sendQueue;
+        this.motorSlots = motorSlots;
+        this.listener = listener;
+    }
+
+    /**
+     * Lets the stages of the control updates be reported to the given latency tracker.
+     */
+    public void setControlLatency(ControlLatency controlLatency) {
+        this.controlLatency = controlLatency;
+    }
+
+    /**
+     * Lets the thread write all queued messages and motor speeds.
+     */
+    public void wakeup() {
+        LockSupport.unpark(this);
+    }
+
+    public void terminate() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Lets the thread send a KEEP_ALIVE, its reply has to be registered before.
+     */
+    public void requestKeepAlive() {
+        keepAliveRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Lets the thread drop all commands not sent yet, try to stop the
+     * motors and terminate, even when terminate() is called meanwhile.
+     * Joining the thread waits for the stop commands being written.
+     */
+    public void requestStop() {
+        stopRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * @return the average time of one write in System.nanoTime() units
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return true, while the thread is in a write
+     */
+    public boolean isWriting() {
+        return writing;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // a stop requested before terminate() is still carried out
+            while (running || stopRequested) {
+                if (stopRequested) {
+                    stopMotors();
+                    return;
+                }
+
+                if (keepAliveRequested) {
+                    keepAliveRequested = false;
+                    int length = LCPMessage.encodeKeepAliveMessage(messageBuffer, 0);
+                    writer.appendFrame(messageBuffer, length);
+                }
+
+                writeMotorSpeeds();
+                byte[] message = sendQueue.poll();
+                if (message == null) {
+                    // after a write, look again for commands queued during it,
+                    // its wakeup may have been consumed by a blocking stream
+                    if (writer.hasPendingFrames())
+                        flush();
+                    // woken by the producer, the watchdog or terminate()
+                    else if (running && !stopRequested && !keepAliveRequested)
+                        LockSupport.park(this);
+                }
+                else if (message == DISCONNECT_REQUEST) {
+                    // the stop commands were put into the slots before
+                    writeMotorSpeeds();
+                    flush();
+                    listener.disconnectRequested();
+                    return;
+                }
+                else {
+                    // other motor commands make the last sent speed unknown
+                    if (message[1] == LCPMessage.SET_OUTPUT_STATE || message[1] == LCPMessage.RESET_MOTOR_POSITION)
+                        motorSlots.forget(message[2]);
+                    writer.appendFrame(message, message.length);
+                }
+            }
+        }
+        catch (IOException e) {
+            if (running)
+                listener.sendFailed(e);
+        }
+    }
+
+    /**
+     * Writes the appended frames and measures the time needed for it.
+     */
+    private void flush() throws IOException {
+        if (!writer.hasPendingFrames())
+            return;
+
+        writing = true;
+        long start = System.nanoTime();
+        try {
+            writer.flush();
+        }
+        finally {
+            writing = false;
+        }
+        long end = System.nanoTime();
+        // new sample weighted by 1/8
+        writeTime = writeTime == 0 ? end - start : writeTime + (end - start - writeTime) / 8;
+        if (motorCommandsPending) {
+            controlLatency.commandWritten(end, end - start);
+            motorCommandsPending = false;
+        }
+    }
+
+    /**
+     * Appends the latest speed of the synchronized drive motors and of every motor,
+     * which wasn't sent before.
+     */
+    private void writeMotorSpeeds() throws IOException {
+        long framesWritten = writer.getFramesWritten();
+        long suppressed = motorSlots.getSuppressedCommands();
+        int sync = motorSlots.takeSync();
+        if (sync != MotorCommandSlots.NO_COMMAND) {
+            int speed = MotorCommandSlots.getSyncSpeed(sync);
+            int turnRatio = MotorCommandSlots.getSyncTurnRatio(sync);
+            // both motors get the same command, they leave with one write
+            int length = LCPMessage.encodeSyncMotorMessage(messageBuffer, 0, MotorCommandSlots.SYNC_MOTOR_1, speed, turnRatio);
+            writer.appendFrame(messageBuffer, length);
+            length = LCPMessage.encodeSyncMotorMessage(messageBuffer, 0, MotorCommandSlots.SYNC_MOTOR_2, speed, turnRatio);
+            writer.appendFrame(messageBuffer, length);
+        }
+
+        for (int motor = 0; motor < motorSlots.getPorts(); motor++) {
+            int speed = motorSlots.take(motor);
+            if (speed != MotorCommandSlots.NO_COMMAND) {
+                int length = LCPMessage.encodeMotorMessage(messageBuffer, 0, motor, speed);
+                writer.appendFrame(messageBuffer, length);
+            }
+        }
+
+        if (writer.getFramesWritten() != framesWritten)
+            motorCommandsPending = true;
+        // passes for other messages (e.g. a KEEP_ALIVE) don't end the sample,
+        // only a command the slots suppressed does
+        else if (!motorCommandsPending && motorSlots.getSuppressedCommands() != suppressed)
+            controlLatency.commandDropped();
+    }
+
+    /**
+     * Drops all commands not sent yet and stops the motors.
+     */
+    private void stopMotors() {
+        while (sendQueue.poll() != null) {
+        }
+        for (int motor = 0; motor < motorSlots.getPorts(); motor++) {
+            motorSlots.take(motor);
+        }
+        motorSlots.takeSync();
+
+        try {
+            for (int motor = 0; motor < motorSlots.getPorts(); motor++) {
+                int length = LCPMessage.encodeMotorMessage(messageBuffer, 0, motor, 0);
+                writer.appendFrame(messageBuffer, length);
+            }
+            writer.flush();
+        }
+        catch (IOException e) {
+            // the connection is going to be closed anyway
+        }
+    }
+}
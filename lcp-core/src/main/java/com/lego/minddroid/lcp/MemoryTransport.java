@@ -0,0 +1,192 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * One end of an in-memory connection. The two ends are created together,
+ * one is given to the BTCommunicator or a WireTraceReplay and the other
+ * one to a stand-in brick, so the protocol stack can be exercised without
+ * bluetooth.
+ */
+public class MemoryTransport implements NxtTransport {
+
+    private static final int PIPE_SIZE = 4096;
+
+    private final Pipe incoming;
+    private final Pipe outgoing;
+    private MemoryTransport peer;
+
+    private MemoryTransport(Pipe incoming, Pipe outgoing) {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+    }
+
+    /**
+     * @return the phone side of a new connection, the brick side is available via getPeer()
+     */
+    public static MemoryTransport createPair() {
+        Pipe toPhone = new Pipe(PIPE_SIZE);
+        Pipe toBrick = new Pipe(PIPE_SIZE);
+        MemoryTransport phoneSide = new MemoryTransport(toPhone, toBrick);
+        MemoryTransport brickSide = new MemoryTransport(toBrick, toPhone);
+        phoneSide.peer = brickSide;
+        brickSide.peer = phoneSide;
+        return phoneSide;
+    }
+
+    /**
+     * @return the other end of the connection
+     */
+    public MemoryTransport getPeer() {
+        return peer;
+    }
+
+    @Override
+    public void connect() {
+        // both ends are connected from the start
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return incoming.inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outgoing.outputStream;
+    }
+
+    /**
+     * Closes both directions, so the other end sees the connection breaking down as well.
+     */
+    @Override
+    public void close() {
+        incoming.close();
+        outgoing.close();
+    }
+
+    /**
+     * Bounded byte buffer between one writing and one reading thread.
+     * Writers block while the buffer is full, readers while it's empty.
+     */
+    private static class Pipe {
+
+        private final byte[] buffer;
+        private int readPosition = 0;
+        private int available = 0;
+        private boolean closed = false;
+
+        Pipe(int size) {
+            buffer = new byte[size];
+        }
+
+        synchronized int read(byte[] data, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+
+            while (available == 0) {
+                if (closed)
+                    return -1;
+                waitForChange();
+            }
+
+            int count = Math.min(length, available);
+            int firstPart = Math.min(count, buffer.length - readPosition);
+            System.arraycopy(buffer, readPosition, data, offset, firstPart);
+            System.arraycopy(buffer, 0, data, offset + firstPart, count - firstPart);
+            readPosition = (readPosition + count) % buffer.length;
+            available -= count;
+            notifyAll();
+            return count;
+        }
+
+        synchronized void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                while (available == buffer.length && !closed)
+                    waitForChange();
+                if (closed)
+                    throw new IOException("pipe closed");
+
+                int writePosition = (readPosition + available) % buffer.length;
+                int count = Math.min(length, Math.min(buffer.length - available, buffer.length - writePosition));
+                System.arraycopy(data, offset, buffer, writePosition, count);
+                available += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void waitForChange() throws InterruptedIOException {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return Pipe.this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] data, int offset, int length) throws IOException {
+                return Pipe.this.read(data, offset, length);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int oneByte) throws IOException {
+                Pipe.this.write(new byte[] { (byte) oneByte }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                Pipe.this.write(data, offset, length);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+    }
+
+}
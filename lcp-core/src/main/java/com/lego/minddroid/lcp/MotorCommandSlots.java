@@ -0,0 +1,179 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * One slot per motor port holding the latest speed not sent yet. A newer
+ * speed replaces an unsent older one, so a congested connection never
+ * works off stale motor commands. A speed equal to the last one sent to the
+ * port is dropped. The synchronized drive motors have an additional slot.
+ * Written by one producer thread, taken by one consumer thread.
+ */
+public class MotorCommandSlots {
+
+    public static final int NO_COMMAND = Integer.MIN_VALUE;
+
+    private static final int PORTS = 3;
+
+    // the synchronized drive motors: B and C on all robot types
+    public static final int SYNC_MOTOR_1 = 1;
+    public static final int SYNC_MOTOR_2 = 2;
+
+    private final AtomicIntegerArray pendingSpeeds = new AtomicIntegerArray(PORTS);
+    // only accessed by the consumer
+    private final int[] sentSpeeds = new int[PORTS];
+
+    // speed and turn ratio for the synchronized drive motors, packed into one value
+    private final AtomicInteger pendingSync = new AtomicInteger(NO_COMMAND);
+    private int sentSync = NO_COMMAND;
+
+    private volatile long supersededCommands = 0;
+    private volatile long suppressedCommands = 0;
+
+    public MotorCommandSlots() {
+        for (int port = 0; port < PORTS; port++) {
+            pendingSpeeds.set(port, NO_COMMAND);
+            sentSpeeds[port] = NO_COMMAND;
+        }
+    }
+
+    /**
+     * Called by the producer only.
+     * @param port the motor port, 0 to 2
+     * @param speed the new speed replacing an unsent one
+     */
+    public void put(int port, int speed) {
+        if (pendingSpeeds.getAndSet(port, speed) != NO_COMMAND)
+            supersededCommands++;
+    }
+
+    /**
+     * Called by the consumer only.
+     * @param port the motor port, 0 to 2
+     * @return the speed to send or NO_COMMAND, when there's nothing new for this port
+     */
+    public int take(int port) {
+        int speed = pendingSpeeds.getAndSet(port, NO_COMMAND);
+        if (speed == NO_COMMAND)
+            return NO_COMMAND;
+
+        if (speed == sentSpeeds[port]) {
+            suppressedCommands++;
+            return NO_COMMAND;
+        }
+
+        sentSpeeds[port] = speed;
+        if (port == SYNC_MOTOR_1 || port == SYNC_MOTOR_2)
+            sentSync = NO_COMMAND;
+        return speed;
+    }
+
+    /**
+     * Called by the producer only.
+     * @param speed the new speed of both drive motors
+     * @param turnRatio the new turn ratio, see LCPMessage.getSyncMotorMessage()
+     */
+    public void putSync(int speed, int turnRatio) {
+        if (pendingSync.getAndSet(((speed & 0xff) << 8) | (turnRatio & 0xff)) != NO_COMMAND)
+            supersededCommands++;
+    }
+
+    /**
+     * Called by the consumer only.
+     * @return the packed speed and turn ratio to send or NO_COMMAND,
+     * when there's nothing new for the drive motors
+     */
+    public int takeSync() {
+        int sync = pendingSync.getAndSet(NO_COMMAND);
+        if (sync == NO_COMMAND)
+            return NO_COMMAND;
+
+        if (sync == sentSync) {
+            suppressedCommands++;
+            return NO_COMMAND;
+        }
+
+        sentSync = sync;
+        sentSpeeds[SYNC_MOTOR_1] = NO_COMMAND;
+        sentSpeeds[SYNC_MOTOR_2] = NO_COMMAND;
+        return sync;
+    }
+
+    /**
+     * @return the speed of a value returned by takeSync()
+     */
+    public static int getSyncSpeed(int sync) {
+        return (byte) (sync >> 8);
+    }
+
+    /**
+     * @return the turn ratio of a value returned by takeSync()
+     */
+    public static int getSyncTurnRatio(int sync) {
+        return (byte) sync;
+    }
+
+    /**
+     * Called by the consumer, when the port got another command than a speed
+     * (e.g. a rotation to a position), so the next speed is sent in any case.
+     */
+    public void forget(int port) {
+        if (port >= 0 && port < PORTS)
+            sentSpeeds[port] = NO_COMMAND;
+        sentSync = NO_COMMAND;
+    }
+
+    /**
+     * @return the number of slots holding a command not sent yet
+     */
+    public int getPendingCount() {
+        int pending = pendingSync.get() == NO_COMMAND ? 0 : 1;
+        for (int port = 0; port < PORTS; port++) {
+            if (pendingSpeeds.get(port) != NO_COMMAND)
+                pending++;
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of ports
+     */
+    public int getPorts() {
+        return PORTS;
+    }
+
+    /**
+     * @return the number of unsent speeds replaced by newer ones
+     */
+    public long getSupersededCommands() {
+        return supersededCommands;
+    }
+
+    /**
+     * @return the number of speeds dropped because they were already sent before
+     */
+    public long getSuppressedCommands() {
+        return suppressedCommands;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte stream connection to a NXT brick. The BTCommunicator speaks LCP
+ * over it without knowing whether the other end is a robot connected via
+ * bluetooth or a stand-in brick used for testing.
+ */
+public interface NxtTransport {
+
+    /**
+     * Opens the connection, blocks until it is established.
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return the stream of the bytes sent by the brick, valid after connect()
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the stream for the bytes sent to the brick, valid after connect()
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the connection, blocked reads and writes are terminated with an exception.
+     */
+    void close() throws IOException;
+
+}
@@ -0,0 +1,92 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+/**
+ * Flyweight reader for the reply to GET_OUTPUT_STATE.
+ */
+public class OutputStateReply extends LCPReplyReader {
+
+    public static final int MESSAGE_LENGTH = LCPCommands.GET_OUTPUT_STATE.getReplyLength();
+
+    @Override
+    public int getMinimumLength() {
+        return MESSAGE_LENGTH;
+    }
+
+    public int getPort() {
+        return getUByte(3);
+    }
+
+    /**
+     * @return the power set point (-100 - 100)
+     */
+    public int getPower() {
+        return getSByte(4);
+    }
+
+    /**
+     * @return the mode byte (bit-field: MOTORON, BRAKE, REGULATED)
+     */
+    public int getMode() {
+        return getUByte(5);
+    }
+
+    public int getRegulationMode() {
+        return getUByte(6);
+    }
+
+    public int getTurnRatio() {
+        return getSByte(7);
+    }
+
+    public int getRunState() {
+        return getUByte(8);
+    }
+
+    /**
+     * @return the tacho limit, 0 means run forever
+     */
+    public long getTachoLimit() {
+        return getLong(9) & 0xffffffffL;
+    }
+
+    /**
+     * @return the tacho count since the last reset of the motor counter
+     */
+    public int getTachoCount() {
+        return getLong(13);
+    }
+
+    /**
+     * @return the tacho count relative to the last programmed movement
+     */
+    public int getBlockTachoCount() {
+        return getLong(17);
+    }
+
+    /**
+     * @return the tacho count relative to the last reset of the rotation sensor
+     */
+    public int getRotationCount() {
+        return getLong(21);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stands in for the NXT when replaying a session without a robot: every
+ * request wanting a reply is answered with the reply recorded for it. When
+ * the requests arrive in another order or the reply is missing in the
+ * trace, a successful reply of the standard length filled with zeros is
+ * sent instead. Replies are written at once, so replaying against this
+ * brick measures the phone side of the link only. The brick stops when
+ * the link is closed.
+ */
+public class RecordedBrick extends Thread {
+
+    private final List<WireTraceReplay.Exchange> exchanges = new ArrayList<>();
+    private final InputStream inputStream;
+    private final OutputStream outputStream;
+
+    /**
+     * @param inputStream the requests of the phone
+     * @param outputStream the replies to the phone
+     */
+    public RecordedBrick(WireTraceReplay replay, InputStream inputStream, OutputStream outputStream) {
+        super("RecordedBrick");
+        setDaemon(true);
+        for (WireTraceReplay.Exchange exchange : replay.getExchanges()) {
+            if (exchange.replyRequired)
+                exchanges.add(exchange);
+        }
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void run() {
+        LCPFrameReader reader = new LCPFrameReader(inputStream);
+        LCPFrameWriter writer = new LCPFrameWriter(outputStream);
+        byte[] message = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+        byte[] reply = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+        int next = 0;
+
+        try {
+            while (true) {
+                int length = reader.readFrame(message);
+                if (length < 2 || !WireTraceReplay.isReplyRequired(message))
+                    continue;
+
+                WireTraceReplay.Exchange exchange = next < exchanges.size() ? exchanges.get(next++) : null;
+                if (exchange != null && exchange.getOpcode() == message[1] &&
+                        exchange.reply != null && exchange.reply.isComplete()) {
+                    writer.appendFrame(exchange.reply.data, exchange.reply.length);
+                } else {
+                    writer.appendFrame(reply, getDefaultReply(message[1], reply));
+                }
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // link closed
+        }
+    }
+
+    /**
+     * @return the length of the reply written into the buffer
+     */
+    private static int getDefaultReply(byte opcode, byte[] reply) {
+        LCPCommand command = LCPCommands.forOpcode(opcode);
+        int length = command != null ? command.getReplyLength() : 3;
+        Arrays.fill(reply, 0, length, (byte) 0);
+        reply[0] = LCPMessage.REPLY_COMMAND;
+        reply[1] = opcode;
+        return length;
+    }
+
+}
@@ -0,0 +1,845 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A NXT brick emulated in the JVM, speaking LCP over a NxtTransport, so the
+ * protocol stack can be tested and benchmarked without a robot. It models:
+ *
+ * - the three motor ports with a first order lag towards the speed given
+ *   by the power, tacho counts and tacho limits, the synchronized mode
+ *   slows one of the two motors according to the turn ratio; speed and
+ *   sync regulation only apply with the REGULATED bit of the mode
+ * - the flash file system for OPEN_WRITE, WRITE, CLOSE, DELETE, FIND_FIRST
+ *   and FIND_NEXT, a file is visible after closing it
+ * - the programs for START_PROGRAM, STOP_PROGRAM and GET_CURRENT_PROGRAM_NAME,
+ *   every file can be started
+ *
+ * The other commands of the table get a plausible reply. Optionally the
+ * brick answers GET_FIRMWARE_VERSION like the leJOS MINDdroid connector.
+ *
+ * The link can be given a one way latency and a bandwidth, which apply to
+ * both directions: a frame is processed once all its bytes have passed the
+ * link and the latency is over, its reply reaches the phone the same way.
+ * Frames in flight overlap like on a real link.
+ *
+ * Offline tool serving connections from MINDdroid or a WireTraceReplay:
+ *
+ *   java com.lego.minddroid.lcp.SimulatedBrick [port] [latency ms] [bytes/s] [lejos]
+ */
+public class SimulatedBrick implements Closeable {
+
+    public static final int DEFAULT_PORT = 6789;
+
+    // reply status codes of the firmware
+    static final int STATUS_SUCCESS = 0x00;
+    static final int STATUS_MAILBOX_EMPTY = LCPMessage.MAILBOX_EMPTY & 0xff;
+    static final int STATUS_NO_MORE_HANDLES = 0x81;
+    static final int STATUS_NO_SPACE = 0x82;
+    static final int STATUS_FILE_NOT_FOUND = LCPMessage.FILE_NOT_FOUND & 0xff;
+    static final int STATUS_FILE_BUSY = 0x8B;
+    static final int STATUS_FILE_FULL = 0x8E;
+    static final int STATUS_FILE_EXISTS = 0x8F;
+    static final int STATUS_ILLEGAL_FILE_NAME = 0x92;
+    static final int STATUS_ILLEGAL_HANDLE = 0x93;
+    static final int STATUS_REQUEST_FAILED = 0xBD;
+    static final int STATUS_UNKNOWN_OPCODE = 0xBE;
+    static final int STATUS_INSANE_PACKET = 0xBF;
+    static final int STATUS_OUT_OF_RANGE = 0xC0;
+    static final int STATUS_CHANNEL_NOT_CONFIGURED = 0xE0;
+    static final int STATUS_NO_ACTIVE_PROGRAM = 0xEC;
+
+    static final int FLASH_SIZE = 128 * 1024;
+    static final int BATTERY_LEVEL = 7800;
+    static final long SLEEP_TIME_LIMIT = 600000;
+    // protocol minor, protocol major, firmware minor, firmware major
+    private static final byte[] FIRMWARE_VERSION = { 124, 1, 31, 1 };
+
+    private static final int PORTS = 3;
+    private static final int SENSOR_PORTS = 4;
+    private static final int MAX_HANDLES = 16;
+
+    // output modes and run states of SET_OUTPUT_STATE
+    private static final int MODE_MOTORON = 0x01;
+    private static final int MODE_BRAKE = 0x02;
+    private static final int MODE_REGULATED = 0x04;
+    private static final int RUN_STATE_IDLE = 0x00;
+    private static final int RUN_STATE_RUNNING = 0x20;
+
+    // unregulated motors run slower on a battery below the nominal voltage
+    private static final double NOMINAL_BATTERY_LEVEL = 9000;
+    // degrees per second at full power, about 170 rpm
+    private static final double MAX_SPEED = 1000;
+    // time constant of the motor in seconds
+    private static final double MOTOR_LAG = 0.1;
+    // time constant of a coasting motor in seconds
+    private static final double COAST_LAG = 0.3;
+
+    /**
+     * State of one output port, the counts are advanced lazily.
+     */
+    private static class Motor {
+        int power;
+        int mode;
+        int regulationMode;
+        int turnRatio;
+        int runState;
+        long tachoLimit;
+        double speed;
+        double tachoCount;
+        double blockTachoCount;
+        double rotationCount;
+        long lastUpdate;
+    }
+
+    /**
+     * An open file or a running search.
+     */
+    private static class Handle {
+        final String name;
+        final byte[] data;
+        int position;
+        // the remaining matches of FIND_FIRST, null for a file opened for writing
+        final List<String> found;
+
+        Handle(String name, byte[] data, List<String> found) {
+            this.name = name;
+            this.data = data;
+            this.found = found;
+        }
+    }
+
+    /**
+     * A frame in flight on the simulated link.
+     */
+    private static class Frame {
+        final byte[] data;
+        final long due;
+
+        Frame(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+
+    private final NxtTransport transport;
+
+    private volatile long latency = 0;
+    private volatile long bytesPerSecond = 0;
+    private volatile boolean lejosMindDroid = false;
+    // the times the simulated link is free again in each direction
+    private long receiveLinkFree = 0;
+    private long sendLinkFree = 0;
+
+    private final Motor[] motors = new Motor[PORTS];
+    private final int[][] sensorModes = new int[SENSOR_PORTS][2];
+    private final Map<String, byte[]> files = new LinkedHashMap<>();
+    private final Handle[] handles = new Handle[MAX_HANDLES];
+    private String runningProgram = null;
+    private long framesReceived = 0;
+    private long repliesSent = 0;
+
+    private final LinkedBlockingQueue<Frame> received = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Frame> replies = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = false;
+
+    /**
+     * @param transport the brick side of the connection, e.g. the peer of a MemoryTransport
+     */
+    public SimulatedBrick(NxtTransport transport) {
+        this.transport = transport;
+        long now = System.nanoTime();
+        for (int port = 0; port < PORTS; port++) {
+            motors[port] = new Motor();
+            motors[port].lastUpdate = now;
+        }
+    }
+
+    /**
+     * @param latency the one way latency of the link in microseconds
+     * @param bytesPerSecond the bandwidth of the link in each direction, 0 for unlimited
+     */
+    public void setLinkTiming(long latency, long bytesPerSecond) {
+        this.latency = TimeUnit.MICROSECONDS.toNanos(latency);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Lets the brick identify itself as a leJOS program running the MINDdroid connector.
+     */
+    public void setLejosMindDroid(boolean lejosMindDroid) {
+        this.lejosMindDroid = lejosMindDroid;
+    }
+
+    /**
+     * Stores a file in the flash, e.g. a program to start.
+     */
+    public synchronized void putFile(String name, byte[] content) {
+        files.put(name, content.clone());
+    }
+
+    /**
+     * @return a copy of the file or null, when there's no such file
+     */
+    public synchronized byte[] getFile(String name) {
+        byte[] content = files.get(name);
+        return content == null ? null : content.clone();
+    }
+
+    /**
+     * @return the name of the running program or null
+     */
+    public synchronized String getRunningProgram() {
+        return runningProgram;
+    }
+
+    public synchronized int getMotorPower(int port) {
+        return motors[port].power;
+    }
+
+    /**
+     * @return the rotation count of the motor in degrees
+     */
+    public synchronized long getRotationCount(int port) {
+        updateMotors(System.nanoTime());
+        return (long) motors[port].rotationCount;
+    }
+
+    public synchronized long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public synchronized long getRepliesSent() {
+        return repliesSent;
+    }
+
+    /**
+     * Connects the transport and starts serving the requests.
+     */
+    public void start() throws IOException {
+        transport.connect();
+        final LCPFrameReader reader = new LCPFrameReader(transport.getInputStream());
+        final LCPFrameWriter writer = new LCPFrameWriter(transport.getOutputStream());
+        running = true;
+
+        startThread("SimulatedBrick receiver", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running) {
+                        byte[] frame = reader.readFrame();
+                        received.put(new Frame(frame, arrive(frame.length, true)));
+                    }
+                } catch (IOException e) {
+                    // connection closed
+                } catch (InterruptedException e) {
+                    // closed
+                }
+                running = false;
+                received.offer(new Frame(null, 0));
+            }
+        });
+
+        startThread("SimulatedBrick engine", new Runnable() {
+            @Override
+            public void run() {
+                byte[] reply = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+                try {
+                    Frame frame;
+                    while ((frame = received.take()).data != null) {
+                        waitUntil(frame.due);
+                        int length = process(frame.data, frame.data.length, reply);
+                        if (length > 0) {
+                            byte[] data = new byte[length];
+                            System.arraycopy(reply, 0, data, 0, length);
+                            replies.put(new Frame(data, arrive(length, false)));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+                replies.offer(new Frame(null, 0));
+            }
+        });
+
+        startThread("SimulatedBrick sender", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Frame frame;
+                    while ((frame = replies.take()).data != null) {
+                        waitUntil(frame.due);
+                        writer.appendFrame(frame.data, frame.data.length);
+                        // replies due at the same time leave together
+                        Frame next = replies.peek();
+                        if (next == null || next.data == null || next.due - System.nanoTime() > 0)
+                            writer.flush();
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    // connection closed
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks until the phone has closed the connection and all replies are sent.
+     */
+    public void awaitDisconnect() throws InterruptedException {
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    private void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Closes the connection and stops the threads.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            transport.close();
+        } finally {
+            for (Thread thread : threads)
+                thread.interrupt();
+            threads.clear();
+        }
+    }
+
+    /**
+     * Passes a frame through the simulated link.
+     * @param length the length of the frame without the length prefix
+     * @return the time the frame has arrived at the other end in System.nanoTime() units
+     */
+    private synchronized long arrive(int length, boolean toBrick) {
+        long now = System.nanoTime();
+        long start = Math.max(now, toBrick ? receiveLinkFree : sendLinkFree);
+        long end = start;
+        if (bytesPerSecond > 0)
+            end += (length + 2) * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        if (toBrick)
+            receiveLinkFree = end;
+        else
+            sendLinkFree = end;
+        return end + latency;
+    }
+
+    private static void waitUntil(long due) throws InterruptedException {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Executes one request.
+     * @param reply buffer for the reply, MAX_FRAME_LENGTH bytes
+     * @return the length of the reply, 0 when no reply was requested
+     */
+    synchronized int process(byte[] request, int length, byte[] reply) {
+        framesReceived++;
+        if (length < 2)
+            return 0;
+
+        boolean replyRequired = request[0] == LCPMessage.DIRECT_COMMAND_REPLY ||
+            request[0] == LCPMessage.SYSTEM_COMMAND_REPLY;
+        LCPCommand command = LCPCommands.forOpcode(request[1]);
+        int replyLength = command == null ? LCPCommand.REPLY_HEADER : command.getReplyLength();
+        for (int pos = 0; pos < replyLength; pos++)
+            reply[pos] = 0;
+
+        int status;
+        if (command == null || (request[0] & 0x7f) != (command.isSystemCommand() ? 0x01 : 0x00))
+            status = STATUS_UNKNOWN_OPCODE;
+        else if (!command.isValidRequest(request, 0, length))
+            status = STATUS_INSANE_PACKET;
+        else
+            status = execute(command, request, length, reply);
+
+        reply[0] = LCPMessage.REPLY_COMMAND;
+        reply[1] = request[1];
+        reply[2] = (byte) status;
+        if (!replyRequired)
+            return 0;
+
+        repliesSent++;
+        return replyLength;
+    }
+
+    /**
+     * Fills in the fields of the reply.
+     * @return the status of the reply
+     */
+    private int execute(LCPCommand command, byte[] request, int length, byte[] reply) {
+        long now = System.nanoTime();
+        switch (command.getOpcode()) {
+            case LCPMessage.START_PROGRAM: {
+                String name = getString(request, command, 0);
+                if (!files.containsKey(name))
+                    return STATUS_FILE_NOT_FOUND;
+                runningProgram = name;
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.STOP_PROGRAM:
+                if (runningProgram == null)
+                    return STATUS_NO_ACTIVE_PROGRAM;
+                runningProgram = null;
+                return STATUS_SUCCESS;
+
+            case LCPMessage.GET_CURRENT_PROGRAM_NAME:
+                if (runningProgram == null)
+                    return STATUS_NO_ACTIVE_PROGRAM;
+                putString(reply, command, 0, runningProgram);
+                return STATUS_SUCCESS;
+
+            case LCPMessage.PLAY_SOUND_FILE:
+                return files.containsKey(getString(request, command, 1)) ? STATUS_SUCCESS : STATUS_FILE_NOT_FOUND;
+
+            case LCPMessage.SET_OUTPUT_STATE: {
+                int port = (int) getInt(request, command, 0);
+                if (port != 0xff && port >= PORTS)
+                    return STATUS_OUT_OF_RANGE;
+                updateMotors(now);
+                for (int index = 0; index < PORTS; index++) {
+                    if (port == 0xff || port == index)
+                        setOutputState(motors[index], request, command);
+                }
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.GET_OUTPUT_STATE: {
+                int port = (int) getInt(request, command, 0);
+                if (port >= PORTS)
+                    return STATUS_OUT_OF_RANGE;
+                updateMotors(now);
+                Motor motor = motors[port];
+                putInt(reply, command, 0, port);
+                putInt(reply, command, 1, motor.power);
+                putInt(reply, command, 2, motor.mode);
+                putInt(reply, command, 3, motor.regulationMode);
+                putInt(reply, command, 4, motor.turnRatio);
+                putInt(reply, command, 5, motor.runState);
+                putInt(reply, command, 6, motor.tachoLimit);
+                putInt(reply, command, 7, (long) motor.tachoCount);
+                putInt(reply, command, 8, (long) motor.blockTachoCount);
+                putInt(reply, command, 9, (long) motor.rotationCount);
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.RESET_MOTOR_POSITION: {
+                int port = (int) getInt(request, command, 0);
+                if (port >= PORTS)
+                    return STATUS_OUT_OF_RANGE;
+                updateMotors(now);
+                if (getInt(request, command, 1) != 0)
+                    motors[port].blockTachoCount = 0;
+                else
+                    motors[port].rotationCount = 0;
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.SET_INPUT_MODE: {
+                int port = (int) getInt(request, command, 0);
+                if (port >= SENSOR_PORTS)
+                    return STATUS_OUT_OF_RANGE;
+                sensorModes[port][0] = (int) getInt(request, command, 1);
+                sensorModes[port][1] = (int) getInt(request, command, 2);
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.GET_INPUT_VALUES: {
+                int port = (int) getInt(request, command, 0);
+                if (port >= SENSOR_PORTS)
+                    return STATUS_OUT_OF_RANGE;
+                // nothing is connected, all values are 0
+                putInt(reply, command, 0, port);
+                putInt(reply, command, 1, 1);
+                putInt(reply, command, 3, sensorModes[port][0]);
+                putInt(reply, command, 4, sensorModes[port][1]);
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.RESET_SCALED_INPUT_VALUE:
+                return getInt(request, command, 0) < SENSOR_PORTS ? STATUS_SUCCESS : STATUS_OUT_OF_RANGE;
+
+            case LCPMessage.MESSAGE_WRITE:
+                return getInt(request, command, 0) < 10 ? STATUS_SUCCESS : STATUS_OUT_OF_RANGE;
+
+            case LCPMessage.MESSAGE_READ:
+                putInt(reply, command, 0, getInt(request, command, 1));
+                return STATUS_MAILBOX_EMPTY;
+
+            case LCPMessage.GET_BATTERY_LEVEL:
+                putInt(reply, command, 0, BATTERY_LEVEL);
+                return STATUS_SUCCESS;
+
+            case LCPMessage.KEEP_ALIVE:
+                putInt(reply, command, 0, SLEEP_TIME_LIMIT);
+                return STATUS_SUCCESS;
+
+            case LCPMessage.PLAY_TONE:
+            case LCPMessage.STOP_SOUND_PLAYBACK:
+                return STATUS_SUCCESS;
+
+            case LCPMessage.LS_GET_STATUS:
+            case LCPMessage.LS_WRITE:
+            case LCPMessage.LS_READ:
+                // no digital sensors
+                return STATUS_CHANNEL_NOT_CONFIGURED;
+
+            case LCPMessage.OPEN_WRITE:
+            case LCPMessage.OPEN_WRITE_LINEAR:
+            case LCPMessage.OPEN_WRITE_DATA:
+                return openWrite(getString(request, command, 0), getInt(request, command, 1), command, reply);
+
+            case LCPMessage.WRITE: {
+                int handleNumber = (int) getInt(request, command, 0);
+                putInt(reply, command, 0, handleNumber);
+                Handle handle = getHandle(handleNumber);
+                if (handle == null || handle.found != null)
+                    return STATUS_ILLEGAL_HANDLE;
+
+                int dataOffset = command.getRequestOffset(1);
+                int count = Math.min(length - dataOffset, handle.data.length - handle.position);
+                System.arraycopy(request, dataOffset, handle.data, handle.position, count);
+                handle.position += count;
+                putInt(reply, command, 1, count);
+                return count < length - dataOffset ? STATUS_FILE_FULL : STATUS_SUCCESS;
+            }
+            case LCPMessage.CLOSE: {
+                int handleNumber = (int) getInt(request, command, 0);
+                putInt(reply, command, 0, handleNumber);
+                Handle handle = getHandle(handleNumber);
+                if (handle == null)
+                    return STATUS_ILLEGAL_HANDLE;
+
+                if (handle.found == null) {
+                    // a file is complete after closing, even when it wasn't written completely
+                    byte[] content = new byte[handle.position];
+                    System.arraycopy(handle.data, 0, content, 0, handle.position);
+                    files.put(handle.name, content);
+                }
+                handles[handleNumber] = null;
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.DELETE: {
+                String name = getString(request, command, 0);
+                putString(reply, command, 0, name);
+                if (isOpen(name))
+                    return STATUS_FILE_BUSY;
+                if (files.remove(name) == null)
+                    return STATUS_FILE_NOT_FOUND;
+                if (name.equals(runningProgram))
+                    runningProgram = null;
+                return STATUS_SUCCESS;
+            }
+            case LCPMessage.FIND_FIRST: {
+                List<String> found = new ArrayList<>();
+                String pattern = getString(request, command, 0);
+                for (String name : files.keySet()) {
+                    if (matches(pattern, name))
+                        found.add(name);
+                }
+                if (found.isEmpty())
+                    return STATUS_FILE_NOT_FOUND;
+
+                int handleNumber = allocateHandle(new Handle(pattern, null, found));
+                if (handleNumber < 0)
+                    return STATUS_NO_MORE_HANDLES;
+                return findNext(handleNumber, command, reply);
+            }
+            case LCPMessage.FIND_NEXT:
+                return findNext((int) getInt(request, command, 0), command, reply);
+
+            case LCPMessage.GET_FIRMWARE_VERSION:
+                System.arraycopy(lejosMindDroid ? LCPMessage.FIRMWARE_VERSION_LEJOSMINDDROID : FIRMWARE_VERSION,
+                    0, reply, command.getReplyOffset(0), FIRMWARE_VERSION.length);
+                return STATUS_SUCCESS;
+
+            case LCPMessage.GET_DEVICE_INFO:
+                putString(reply, command, 0, "NXT");
+                putInt(reply, command, 3, FLASH_SIZE - getUsedFlash());
+                return STATUS_SUCCESS;
+
+            case LCPMessage.DELETE_USER_FLASH:
+                files.clear();
+                runningProgram = null;
+                return STATUS_SUCCESS;
+
+            default:
+                return STATUS_REQUEST_FAILED;
+        }
+    }
+
+    private void setOutputState(Motor motor, byte[] request, LCPCommand command) {
+        motor.power = (int) getInt(request, command, 1);
+        motor.mode = (int) getInt(request, command, 2);
+        motor.regulationMode = (int) getInt(request, command, 3);
+        motor.turnRatio = (int) getInt(request, command, 4);
+        motor.runState = (int) getInt(request, command, 5);
+        motor.tachoLimit = getInt(request, command, 6);
+        // a new goal starts counting from 0
+        motor.tachoCount = 0;
+        if ((motor.mode & MODE_BRAKE) != 0 && (motor.mode & MODE_MOTORON) == 0)
+            motor.speed = 0;
+    }
+
+    /**
+     * Advances speeds and counts of all motors to the given time.
+     */
+    private void updateMotors(long now) {
+        for (int port = 0; port < PORTS; port++) {
+            Motor motor = motors[port];
+            double elapsed = (now - motor.lastUpdate) / 1e9;
+            motor.lastUpdate = now;
+            if (elapsed <= 0)
+                continue;
+
+            boolean powered = (motor.mode & MODE_MOTORON) != 0 && motor.runState != RUN_STATE_IDLE;
+            double target = powered ? MAX_SPEED * motor.power * getRegulationFactor(port) / 100 : 0;
+            double lag = powered || (motor.mode & MODE_BRAKE) != 0 ? MOTOR_LAG : COAST_LAG;
+            // exact integral of the first order response, however long ago the last update was
+            double decay = Math.exp(-elapsed / lag);
+            double degrees = target * elapsed + (motor.speed - target) * lag * (1 - decay);
+            motor.speed = target + (motor.speed - target) * decay;
+
+            if (motor.tachoLimit != 0 && powered && Math.abs(motor.tachoCount + degrees) >= motor.tachoLimit) {
+                // the goal was reached, the motor stops there
+                degrees = Math.signum(degrees) * (motor.tachoLimit - Math.abs(motor.tachoCount));
+                motor.runState = RUN_STATE_IDLE;
+                motor.power = 0;
+                motor.speed = 0;
+            }
+            motor.tachoCount += degrees;
+            motor.blockTachoCount += degrees;
+            motor.rotationCount += degrees;
+        }
+    }
+
+    /**
+     * Like the firmware, the regulation mode only counts with the REGULATED bit
+     * of the mode set. Unregulated motors follow the battery voltage, regulated
+     * ones hold the speed of the nominal voltage. In the synchronized mode a turn
+     * ratio slows one motor of the pair down: 50 stops it, 100 reverses it.
+     * Positive ratios slow the higher port.
+     * @return the factor for the power of the motor
+     */
+    private double getRegulationFactor(int port) {
+        Motor motor = motors[port];
+        if (!isRegulated(motor, LCPMessage.REGULATION_MODE_MOTOR_SPEED) &&
+                !isRegulated(motor, LCPMessage.REGULATION_MODE_MOTOR_SYNC))
+            return BATTERY_LEVEL / NOMINAL_BATTERY_LEVEL;
+
+        if (motor.regulationMode != LCPMessage.REGULATION_MODE_MOTOR_SYNC || motor.turnRatio == 0)
+            return 1;
+
+        for (int other = 0; other < PORTS; other++) {
+            if (other != port && isRegulated(motors[other], LCPMessage.REGULATION_MODE_MOTOR_SYNC)) {
+                boolean slowed = motor.turnRatio > 0 ? port > other : port < other;
+                return slowed ? 1 - Math.abs(motor.turnRatio) / 50.0 : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static boolean isRegulated(Motor motor, int regulationMode) {
+        return (motor.mode & MODE_REGULATED) != 0 && motor.regulationMode == regulationMode;
+    }
+
+    private int openWrite(String name, long size, LCPCommand command, byte[] reply) {
+        if (!FileNameCache.isValid(name))
+            return STATUS_ILLEGAL_FILE_NAME;
+        if (files.containsKey(name) || isOpen(name))
+            return STATUS_FILE_EXISTS;
+        if (size > FLASH_SIZE - getUsedFlash())
+            return STATUS_NO_SPACE;
+
+        int handleNumber = allocateHandle(new Handle(name, new byte[(int) size], null));
+        if (handleNumber < 0)
+            return STATUS_NO_MORE_HANDLES;
+        putInt(reply, command, 0, handleNumber);
+        return STATUS_SUCCESS;
+    }
+
+    private int findNext(int handleNumber, LCPCommand command, byte[] reply) {
+        Handle handle = getHandle(handleNumber);
+        if (handle == null || handle.found == null)
+            return STATUS_ILLEGAL_HANDLE;
+
+        if (handle.position >= handle.found.size()) {
+            // the search is over, its handle is released
+            handles[handleNumber] = null;
+            return STATUS_FILE_NOT_FOUND;
+        }
+        String name = handle.found.get(handle.position++);
+        putInt(reply, command, 0, handleNumber);
+        putString(reply, command, 1, name);
+        putInt(reply, command, 2, files.get(name).length);
+        return STATUS_SUCCESS;
+    }
+
+    /**
+     * Matches a file name against a pattern of the firmware: "*.*", "*.ext",
+     * "name.*" or a complete file name.
+     */
+    static boolean matches(String pattern, String name) {
+        int patternDot = pattern.lastIndexOf('.');
+        int nameDot = name.lastIndexOf('.');
+        String patternBase = patternDot < 0 ? pattern : pattern.substring(0, patternDot);
+        String patternExtension = patternDot < 0 ? "" : pattern.substring(patternDot + 1);
+        String base = nameDot < 0 ? name : name.substring(0, nameDot);
+        String extension = nameDot < 0 ? "" : name.substring(nameDot + 1);
+        return (patternBase.equals("*") || patternBase.equalsIgnoreCase(base)) &&
+            (patternExtension.equals("*") || patternExtension.equalsIgnoreCase(extension));
+    }
+
+    private int allocateHandle(Handle handle) {
+        for (int number = 0; number < MAX_HANDLES; number++) {
+            if (handles[number] == null) {
+                handles[number] = handle;
+                return number;
+            }
+        }
+        return -1;
+    }
+
+    private Handle getHandle(int number) {
+        return number < MAX_HANDLES ? handles[number] : null;
+    }
+
+    private boolean isOpen(String name) {
+        for (Handle handle : handles) {
+            if (handle != null && handle.found == null && handle.name.equals(name))
+                return true;
+        }
+        return false;
+    }
+
+    private int getUsedFlash() {
+        int used = 0;
+        for (byte[] content : files.values())
+            used += content.length;
+        for (Handle handle : handles) {
+            if (handle != null && handle.found == null)
+                used += handle.data.length;
+        }
+        return used;
+    }
+
+    /**
+     * @return a numeric field of the request, signed kinds are sign extended
+     */
+    private static long getInt(byte[] request, LCPCommand command, int index) {
+        int field = command.getRequestField(index);
+        int position = command.getRequestOffset(index);
+        int size = LCPCommand.getSize(field);
+        long value = 0;
+        for (int pos = size - 1; pos >= 0; pos--)
+            value = value << 8 | (request[position + pos] & 0xff);
+
+        switch (LCPCommand.getKind(field)) {
+            case LCPCommand.SBYTE:
+                return (byte) value;
+            case LCPCommand.SWORD:
+                return (short) value;
+            case LCPCommand.SLONG:
+                return (int) value;
+            default:
+                return value;
+        }
+    }
+
+    private static String getString(byte[] request, LCPCommand command, int index) {
+        int start = command.getRequestOffset(index);
+        int size = LCPCommand.getSize(command.getRequestField(index));
+        int length = 0;
+        while (length < size && request[start + length] != 0)
+            length++;
+        return new String(request, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void putInt(byte[] reply, LCPCommand command, int index, long value) {
+        int position = command.getReplyOffset(index);
+        int size = LCPCommand.getSize(command.getReplyField(index));
+        for (int pos = 0; pos < size; pos++)
+            reply[position + pos] = (byte) (value >> (8 * pos));
+    }
+
+    private static void putString(byte[] reply, LCPCommand command, int index, String value) {
+        int position = command.getReplyOffset(index);
+        int size = LCPCommand.getSize(command.getReplyField(index));
+        byte[] characters = value.getBytes(StandardCharsets.ISO_8859_1);
+        int length = Math.min(characters.length, size - 1);
+        System.arraycopy(characters, 0, reply, position, length);
+        for (int pos = length; pos < size; pos++)
+            reply[position + pos] = 0;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long latency = args.length > 1 ? (long) (Double.parseDouble(args[1]) * 1000) : 0;
+        long bytesPerSecond = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        boolean lejos = args.length > 3 && args[3].equals("lejos");
+
+        // the files survive reconnecting like on the brick
+        Map<String, byte[]> flash = new LinkedHashMap<>();
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("simulated NXT listening on port " + port);
+            while (true) {
+                TcpTransport transport = new TcpTransport(serverSocket.accept());
+                SimulatedBrick brick = new SimulatedBrick(transport);
+                brick.setLinkTiming(latency, bytesPerSecond);
+                brick.setLejosMindDroid(lejos);
+                for (Map.Entry<String, byte[]> file : flash.entrySet())
+                    brick.putFile(file.getKey(), file.getValue());
+                brick.start();
+                System.out.println("connected");
+
+                brick.awaitDisconnect();
+                synchronized (brick) {
+                    flash.clear();
+                    flash.putAll(brick.files);
+                }
+                brick.close();
+                System.out.println("disconnected after " + brick.getFramesReceived() + " frames");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * TCP connection to a stand-in brick, e.g. a SimulatedBrick running on the
+ * development machine. Addresses of the form "tcp:host:port" given to
+ * BTCommunicator.setMACAddress() are connected with this transport.
+ * On a device the app needs the INTERNET permission for it.
+ */
+public class TcpTransport implements NxtTransport {
+
+    public static final String ADDRESS_PREFIX = "tcp:";
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+
+    public TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Wraps an already connected socket, e.g. the brick side accepted by a server socket.
+     */
+    public TcpTransport(Socket socket) throws IOException {
+        this.host = null;
+        this.port = 0;
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+    }
+
+    /**
+     * @param address the address in the form "tcp:host:port"
+     * @return the transport or null, when the address isn't a TCP address
+     */
+    public static TcpTransport fromAddress(String address) {
+        if (address == null || !address.startsWith(ADDRESS_PREFIX))
+            return null;
+
+        int portSeparator = address.lastIndexOf(':');
+        if (portSeparator <= ADDRESS_PREFIX.length())
+            return null;
+
+        try {
+            return new TcpTransport(address.substring(ADDRESS_PREFIX.length(), portSeparator),
+                Integer.parseInt(address.substring(portSeparator + 1)));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (socket != null)
+            return;
+
+        Socket newSocket = new Socket();
+        try {
+            // frames are small, don't wait for more data
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        }
+        catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (socket == null)
+            throw new IOException();
+
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (socket == null)
+            throw new IOException();
+
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            Socket oldSocket = socket;
+            socket = null;
+            oldSocket.close();
+        }
+    }
+
+}
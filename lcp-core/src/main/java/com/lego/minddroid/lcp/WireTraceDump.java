@@ -0,0 +1,128 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Offline tool printing a wire trace file, one frame per line:
+ *
+ *   java com.lego.minddroid.lcp.WireTraceDump wiretrace.bin
+ *
+ * The times are milliseconds since the start of the session, ">" marks frames
+ * sent to the NXT and "<" frames received from it.
+ */
+public class WireTraceDump {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: WireTraceDump <trace file>");
+            System.exit(1);
+        }
+
+        List<WireTraceReader.Record> records = WireTraceReader.read(new File(args[0]));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        long sessionStart = records.isEmpty() ? 0 : records.get(0).time;
+        StringBuilder line = new StringBuilder();
+
+        for (WireTraceReader.Record record : records) {
+            if (record.direction == WireTraceRecorder.SESSION) {
+                sessionStart = record.time;
+                System.out.println("# session " + dateFormat.format(new Date(record.getWallTime())));
+                continue;
+            }
+
+            line.setLength(0);
+            line.append(String.format(Locale.US, "%8d %10.3f %s %-8s %-26s %4d ",
+                record.sequence,
+                (record.time - sessionStart) / 1e6,
+                record.direction == WireTraceRecorder.SENT ? ">" : "<",
+                getTypeName(record.data),
+                getCommandName(record.data),
+                record.length));
+            for (int pos = 0; pos < record.data.length; pos++) {
+                if (pos > 0)
+                    line.append(' ');
+                line.append(String.format("%02x", record.data[pos] & 0xff));
+            }
+            if (!record.isComplete())
+                line.append(" ...");
+            System.out.println(line);
+        }
+    }
+
+    static String getTypeName(byte[] message) {
+        if (message.length < 1)
+            return "?";
+
+        switch (message[0]) {
+            case 0x00:
+                return "direct";
+            case 0x01:
+                return "system";
+            case 0x02:
+                return "reply";
+            case (byte) 0x80:
+                return "direct-";
+            case (byte) 0x81:
+                return "system-";
+            default:
+                return String.format("%02x", message[0] & 0xff);
+        }
+    }
+
+    /**
+     * @return the name of the opcode, for the standard commands from the
+     *         command table, otherwise the extensions of MINDdroid and leJOS
+     */
+    static String getCommandName(byte[] message) {
+        if (message.length < 2)
+            return "?";
+
+        byte opcode = message[1];
+        LCPCommand command = LCPCommands.forOpcode(opcode);
+        if (command != null)
+            return command.getName();
+
+        if (opcode == LCPMessage.SAY_TEXT)
+            return "SAY_TEXT";
+        if (opcode == LCPMessage.VIBRATE_PHONE)
+            return "VIBRATE_PHONE";
+        if (opcode == LCPMessage.ACTION_BUTTON)
+            return "ACTION_BUTTON";
+        if (opcode == LCPMessage.NXJ_DISCONNECT)
+            return "NXJ_DISCONNECT";
+        if (opcode == LCPMessage.NXJ_DEFRAG)
+            return "NXJ_DEFRAG";
+        if (opcode == LCPMessage.NXJ_FIND_FIRST)
+            return "NXJ_FIND_FIRST";
+        if (opcode == LCPMessage.NXJ_FIND_NEXT)
+            return "NXJ_FIND_NEXT";
+        if (opcode == LCPMessage.NXJ_PACKET_MODE)
+            return "NXJ_PACKET_MODE";
+        return String.format("%02x", opcode & 0xff);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the frames recorded by a WireTraceRecorder in the order they were
+ * recorded. Meant for offline tools, it reads the whole file at once.
+ */
+public class WireTraceReader {
+
+    /**
+     * One recorded frame.
+     */
+    public static class Record {
+
+        public final long sequence;
+        public final long time;
+        public final byte direction;
+        // the length of the frame, data may hold less
+        public final int length;
+        public final byte[] data;
+
+        Record(long sequence, long time, byte direction, int length, byte[] data) {
+            this.sequence = sequence;
+            this.time = time;
+            this.direction = direction;
+            this.length = length;
+            this.data = data;
+        }
+
+        /**
+         * @return true, when the data holds the complete frame
+         */
+        public boolean isComplete() {
+            return data.length == length;
+        }
+
+        /**
+         * @return the wall clock time in milliseconds of a SESSION record
+         */
+        public long getWallTime() {
+            return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        }
+    }
+
+    private WireTraceReader() {
+    }
+
+    /**
+     * @return the records of the file ordered by their sequence
+     */
+    public static List<Record> read(File traceFile) throws IOException {
+        byte[] content;
+        try (RandomAccessFile file = new RandomAccessFile(traceFile, "r")) {
+            content = new byte[(int) file.length()];
+            file.readFully(content);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        if (content.length < WireTraceRecorder.HEADER_SIZE ||
+                buffer.getInt(WireTraceRecorder.MAGIC_POSITION) != WireTraceRecorder.MAGIC)
+            throw new IOException("no wire trace: " + traceFile);
+        if (buffer.getInt(WireTraceRecorder.VERSION_POSITION) != WireTraceRecorder.VERSION ||
+                buffer.getInt(WireTraceRecorder.SLOT_SIZE_POSITION) != WireTraceRecorder.SLOT_SIZE)
+            throw new IOException("unsupported wire trace version: " + traceFile);
+
+        int slotCount = buffer.getInt(WireTraceRecorder.SLOT_COUNT_POSITION);
+        if (content.length < WireTraceRecorder.HEADER_SIZE + (long) slotCount * WireTraceRecorder.SLOT_SIZE)
+            throw new IOException("truncated wire trace: " + traceFile);
+
+        List<Record> records = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = WireTraceRecorder.HEADER_SIZE + slot * WireTraceRecorder.SLOT_SIZE;
+            long stamp = buffer.getLong(base + WireTraceRecorder.STAMP_POSITION);
+            // empty or not completely written
+            if (stamp == 0)
+                continue;
+
+            int length = buffer.getShort(base + WireTraceRecorder.LENGTH_POSITION) & 0xffff;
+            byte[] data = new byte[Math.min(length, WireTraceRecorder.MAX_DATA)];
+            System.arraycopy(content, base + WireTraceRecorder.DATA_POSITION, data, 0, data.length);
+            records.add(new Record(stamp - 1,
+                buffer.getLong(base + WireTraceRecorder.TIME_POSITION),
+                buffer.get(base + WireTraceRecorder.DIRECTION_POSITION),
+                length, data));
+        }
+
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record first, Record second) {
+                return Long.compare(first.sequence, second.sequence);
+            }
+        });
+        return records;
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the LCP frames of a connection into a memory-mapped ring file of
+ * fixed size slots, so the last frames before a problem in the field can be
+ * inspected afterwards (see WireTraceDump). Recording doesn't allocate or
+ * lock: a slot is claimed with an atomic counter and written in place, the
+ * operating system writes the pages to the file.
+ *
+ * File layout (little endian): a header of HEADER_SIZE bytes followed by the
+ * slots. Every slot holds the sequence number plus one (0 for an empty or
+ * unfinished slot), System.nanoTime(), the direction, the length of the
+ * frame and up to MAX_DATA bytes of the frame. Each opening of the file
+ * records a SESSION slot carrying the wall clock time, the nano times of
+ * different sessions can't be compared.
+ */
+public class WireTraceRecorder implements Closeable {
+
+    // directions
+    public static final byte SESSION = 0;
+    public static final byte SENT = 1;
+    public static final byte RECEIVED = 2;
+
+    static final int MAGIC = 0x5443504c; // "LCPT"
+    static final int VERSION = 1;
+
+    // header: magic, version, slot size, slot count
+    static final int HEADER_SIZE = 64;
+    static final int MAGIC_POSITION = 0;
+    static final int VERSION_POSITION = 4;
+    static final int SLOT_SIZE_POSITION = 8;
+    static final int SLOT_COUNT_POSITION = 12;
+
+    // slot: stamp, time, direction, unused, frame length, frame data
+    static final int SLOT_SIZE = 96;
+    static final int STAMP_POSITION = 0;
+    static final int TIME_POSITION = 8;
+    static final int DIRECTION_POSITION = 16;
+    static final int LENGTH_POSITION = 18;
+    static final int DATA_POSITION = 20;
+    // longer frames are cut, the slot keeps their full length
+    public static final int MAX_DATA = SLOT_SIZE - DATA_POSITION;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final AtomicLong nextSequence;
+    private final byte[] sessionData = new byte[8];
+
+    private WireTraceRecorder(RandomAccessFile file, MappedByteBuffer buffer, int slotCount, long nextSequence) {
+        this.file = file;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.nextSequence = new AtomicLong(nextSequence);
+    }
+
+    /**
+     * Opens the ring file, an existing file with the same number of slots
+     * is continued, so the frames of former sessions survive a restart.
+     * @param slotCount number of frames kept in the file
+     */
+    public static WireTraceRecorder open(File traceFile, int slotCount) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(traceFile, "rw");
+        try {
+            long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+            boolean continued = file.length() == size;
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            continued = continued &&
+                buffer.getInt(MAGIC_POSITION) == MAGIC &&
+                buffer.getInt(VERSION_POSITION) == VERSION &&
+                buffer.getInt(SLOT_SIZE_POSITION) == SLOT_SIZE &&
+                buffer.getInt(SLOT_COUNT_POSITION) == slotCount;
+
+            long nextSequence = 0;
+            if (continued) {
+                for (int slot = 0; slot < slotCount; slot++)
+                    nextSequence = Math.max(nextSequence, buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + STAMP_POSITION));
+            } else {
+                for (int position = 0; position < size; position += 8)
+                    buffer.putLong(position, 0);
+                buffer.putInt(MAGIC_POSITION, MAGIC);
+                buffer.putInt(VERSION_POSITION, VERSION);
+                buffer.putInt(SLOT_SIZE_POSITION, SLOT_SIZE);
+                buffer.putInt(SLOT_COUNT_POSITION, slotCount);
+            }
+
+            WireTraceRecorder recorder = new WireTraceRecorder(file, buffer, slotCount, nextSequence);
+            recorder.recordSession(System.currentTimeMillis());
+            return recorder;
+        }
+        catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Records one frame, called by the sending and the receiving thread.
+     * @param direction SENT or RECEIVED
+     * @param message the message without length prefix
+     */
+    public void record(byte direction, byte[] message, int length) {
+        long sequence = nextSequence.getAndIncrement();
+        int base = HEADER_SIZE + (int) (sequence % slotCount) * SLOT_SIZE;
+
+        // the slot is invalid until it's completely written
+        buffer.putLong(base + STAMP_POSITION, 0);
+        buffer.putLong(base + TIME_POSITION, System.nanoTime());
+        buffer.put(base + DIRECTION_POSITION, direction);
+        buffer.putShort(base + LENGTH_POSITION, (short) length);
+        int count = Math.min(length, MAX_DATA);
+        for (int pos = 0; pos < count; pos++)
+            buffer.put(base + DATA_POSITION + pos, message[pos]);
+        buffer.putLong(base + STAMP_POSITION, sequence + 1);
+    }
+
+    /**
+     * @return the number of slots written since the file was created
+     */
+    public long getRecordCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Writes the pending pages to the file.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private void recordSession(long wallTime) {
+        for (int pos = 0; pos < 8; pos++)
+            sessionData[pos] = (byte) (wallTime >> (8 * pos));
+        record(SESSION, sessionData, sessionData.length);
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the frames a phone sent in a recorded session (see
+ * WireTraceRecorder) and checks the replies against the recorded ones.
+ * The frames are sent with the recorded timing divided by a speed factor,
+ * or as fast as the link accepts them. Replies are matched in request
+ * order, like the NXT answers them. By default only the command, the
+ * status and the length of a reply are compared, because values like the
+ * battery level or the tacho counts differ from run to run.
+ *
+ * Offline tool:
+ *
+ *   java com.lego.minddroid.lcp.WireTraceReplay wiretrace.bin [speed] [tcp:host:port]
+ *
+ * The address has the same form as the one MINDdroid connects to, e.g. a
+ * SimulatedBrick, the "tcp:" may be left out. Without an address the session
+ * is replayed against a RecordedBrick.
+ * A speed of 0 replays at maximum speed.
+ */
+public class WireTraceReplay {
+
+    // number of problems kept for the report
+    private static final int MAX_PROBLEMS = 20;
+
+    /**
+     * The outcome of one replay.
+     */
+    public static class Result {
+
+        public int framesSent;
+        public int repliesExpected;
+        public int repliesReceived;
+        public int mismatches;
+        public int unexpected;
+        public long elapsedNanos;
+        public final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+
+        /**
+         * @return true, when every expected reply arrived and matched
+         */
+        public boolean isSuccess() {
+            return mismatches == 0 && unexpected == 0 && repliesReceived == repliesExpected;
+        }
+
+        void addProblem(String problem) {
+            if (problems.size() < MAX_PROBLEMS)
+                problems.add(problem);
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.US,
+                "%d frames in %.3f s (%.0f frames/s), replies %d/%d, %d mismatches, %d unexpected",
+                framesSent, seconds, seconds > 0 ? framesSent / seconds : 0.0,
+                repliesReceived, repliesExpected, mismatches, unexpected);
+        }
+    }
+
+    /**
+     * A request of the session together with the reply recorded for it.
+     */
+    static class Exchange {
+
+        final WireTraceReader.Record request;
+        final boolean replyRequired;
+        // null when the reply is missing in the trace
+        WireTraceReader.Record reply;
+
+        Exchange(WireTraceReader.Record request) {
+            this.request = request;
+            this.replyRequired = isReplyRequired(request.data);
+        }
+
+        byte getOpcode() {
+            return request.data[1];
+        }
+    }
+
+    private final List<Exchange> exchanges = new ArrayList<>();
+    private final int skipped;
+    private boolean strict = false;
+    private long replyTimeout = 2000;
+
+    /**
+     * @param session the records of one session, see getSessions()
+     */
+    public WireTraceReplay(List<WireTraceReader.Record> session) {
+        int incomplete = 0;
+        List<Exchange> pending = new ArrayList<>();
+
+        for (WireTraceReader.Record record : session) {
+            if (record.direction == WireTraceRecorder.SENT) {
+                // truncated frames can't be sent again
+                if (!record.isComplete() || record.length < 2) {
+                    incomplete++;
+                    continue;
+                }
+                Exchange exchange = new Exchange(record);
+                exchanges.add(exchange);
+                if (exchange.replyRequired)
+                    pending.add(exchange);
+            } else if (record.direction == WireTraceRecorder.RECEIVED && record.data.length >= 2 &&
+                    record.data[0] == LCPMessage.REPLY_COMMAND) {
+                // the oldest open request with the same command gets the reply
+                for (int index = 0; index < pending.size(); index++) {
+                    Exchange exchange = pending.get(index);
+                    if (exchange.getOpcode() == record.data[1]) {
+                        exchange.reply = record;
+                        pending.remove(index);
+                        break;
+                    }
+                }
+            }
+        }
+        skipped = incomplete;
+    }
+
+    /**
+     * Splits the records of a trace file at the SESSION records.
+     * @return the sessions in recording order, each without its SESSION record
+     */
+    public static List<List<WireTraceReader.Record>> getSessions(List<WireTraceReader.Record> records) {
+        List<List<WireTraceReader.Record>> sessions = new ArrayList<>();
+        List<WireTraceReader.Record> session = null;
+        for (WireTraceReader.Record record : records) {
+            if (record.direction == WireTraceRecorder.SESSION || session == null) {
+                session = new ArrayList<>();
+                sessions.add(session);
+                if (record.direction == WireTraceRecorder.SESSION)
+                    continue;
+            }
+            session.add(record);
+        }
+        return sessions;
+    }
+
+    static boolean isReplyRequired(byte[] message) {
+        return message[0] == LCPMessage.DIRECT_COMMAND_REPLY || message[0] == LCPMessage.SYSTEM_COMMAND_REPLY;
+    }
+
+    /**
+     * Compares all bytes of the replies instead of command, status and length only.
+     */
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    /**
+     * @param replyTimeout maximum time in milliseconds to wait for the outstanding
+     *        replies after the last frame was sent
+     */
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    /**
+     * @return the number of recorded frames which can't be replayed, because
+     *         they were truncated in the trace
+     */
+    public int getSkippedFrames() {
+        return skipped;
+    }
+
+    List<Exchange> getExchanges() {
+        return exchanges;
+    }
+
+    /**
+     * Sends the session over the given link and checks the replies. A
+     * receiving thread reads the replies until all expected ones arrived,
+     * the caller should close the link afterwards.
+     * @param speed factor applied to the recorded timing, 0 for maximum speed
+     */
+    public Result replay(InputStream inputStream, OutputStream outputStream, double speed)
+            throws IOException, InterruptedException {
+        final Result result = new Result();
+        final ConcurrentLinkedQueue<Exchange> awaited = new ConcurrentLinkedQueue<>();
+        int expected = 0;
+        for (Exchange exchange : exchanges) {
+            if (exchange.replyRequired)
+                expected++;
+        }
+        result.repliesExpected = expected;
+        final CountDownLatch outstanding = new CountDownLatch(expected);
+
+        final LCPFrameReader reader = new LCPFrameReader(inputStream);
+        Thread receiver = new Thread("WireTraceReplay") {
+            @Override
+            public void run() {
+                byte[] message = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+                try {
+                    while (outstanding.getCount() > 0) {
+                        int length = reader.readFrame(message);
+                        // messages sent by a program on the NXT aren't replies
+                        if (length < 2 || message[0] != LCPMessage.REPLY_COMMAND)
+                            continue;
+                        if (checkReply(message, length, awaited.poll(), result))
+                            outstanding.countDown();
+                    }
+                } catch (IOException e) {
+                    // link closed
+                }
+            }
+        };
+        receiver.setDaemon(true);
+        receiver.start();
+
+        LCPFrameWriter writer = new LCPFrameWriter(outputStream);
+        long firstTime = exchanges.isEmpty() ? 0 : exchanges.get(0).request.time;
+        long start = System.nanoTime();
+
+        for (Exchange exchange : exchanges) {
+            if (speed > 0) {
+                long due = start + (long) ((exchange.request.time - firstTime) / speed);
+                if (due - System.nanoTime() > 0) {
+                    // frames due at the same time leave with one write, like in the app
+                    writer.flush();
+                    long remaining;
+                    while ((remaining = due - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(remaining);
+                }
+            }
+            // registered before sending, the reply may arrive at once
+            if (exchange.replyRequired)
+                awaited.add(exchange);
+            writer.appendFrame(exchange.request.data, exchange.request.length);
+            result.framesSent++;
+        }
+        writer.flush();
+
+        outstanding.await(replyTimeout, TimeUnit.MILLISECONDS);
+        result.elapsedNanos = System.nanoTime() - start;
+        synchronized (result) {
+            result.repliesReceived = expected - (int) outstanding.getCount();
+        }
+        for (Exchange exchange : awaited)
+            result.addProblem("no reply: " + describe(exchange.request));
+        return result;
+    }
+
+    /**
+     * @return false for a reply nobody waits for
+     */
+    private boolean checkReply(byte[] message, int length, Exchange exchange, Result result) {
+        synchronized (result) {
+            if (exchange == null) {
+                result.unexpected++;
+                result.addProblem("unexpected reply: " + describe(message, length));
+                return false;
+            }
+
+            boolean matches = length >= 3 && message[1] == exchange.getOpcode();
+            WireTraceReader.Record reply = exchange.reply;
+            if (matches && reply != null) {
+                matches = length == reply.length && reply.data.length >= 3 && message[2] == reply.data[2];
+                if (matches && strict && reply.isComplete())
+                    matches = Arrays.equals(Arrays.copyOf(message, length), reply.data);
+            }
+
+            if (!matches) {
+                result.mismatches++;
+                result.addProblem("reply " + describe(message, length) + " to " + describe(exchange.request) +
+                    ", recorded " + (reply == null ? "none" : describe(reply)));
+            }
+            return true;
+        }
+    }
+
+    private static String describe(WireTraceReader.Record record) {
+        return "#" + record.sequence + " " + describe(record.data, record.data.length);
+    }
+
+    private static String describe(byte[] message, int length) {
+        StringBuilder text = new StringBuilder(WireTraceDump.getCommandName(Arrays.copyOf(message, length)));
+        for (int pos = 0; pos < length; pos++)
+            text.append(pos == 0 ? " [" : " ").append(String.format("%02x", message[pos] & 0xff));
+        return text.append(length > 0 ? "]" : "").toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("usage: WireTraceReplay <trace file> [speed, 0 for maximum] [tcp:host:port]");
+            System.exit(1);
+        }
+
+        TcpTransport transport = null;
+        if (args.length > 2) {
+            String address = args[2].startsWith(TcpTransport.ADDRESS_PREFIX) ? args[2] : TcpTransport.ADDRESS_PREFIX + args[2];
+            transport = TcpTransport.fromAddress(address);
+            if (transport == null) {
+                System.err.println("not an address of the form tcp:host:port: " + args[2]);
+                System.exit(1);
+            }
+        }
+
+        List<List<WireTraceReader.Record>> sessions = getSessions(WireTraceReader.read(new File(args[0])));
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        if (sessions.isEmpty() || sessions.get(sessions.size() - 1).isEmpty()) {
+            System.err.println("no frames in trace");
+            System.exit(1);
+        }
+        // the latest session is the one the trace was kept for
+        WireTraceReplay replay = new WireTraceReplay(sessions.get(sessions.size() - 1));
+        if (replay.getSkippedFrames() > 0)
+            System.out.println(replay.getSkippedFrames() + " truncated frames skipped");
+
+        Result result;
+        if (transport != null) {
+            transport.connect();
+            try {
+                result = replay.replay(transport.getInputStream(), transport.getOutputStream(), speed);
+            } finally {
+                transport.close();
+            }
+        } else {
+            MemoryTransport phoneSide = MemoryTransport.createPair();
+            MemoryTransport brickSide = phoneSide.getPeer();
+            new RecordedBrick(replay, brickSide.getInputStream(), brickSide.getOutputStream()).start();
+            try {
+                result = replay.replay(phoneSide.getInputStream(), phoneSide.getOutputStream(), speed);
+            } finally {
+                phoneSide.close();
+            }
+        }
+
+        System.out.println(result);
+        for (String problem : result.problems)
+            System.out.println("  " + problem);
+        System.exit(result.isSuccess() ? 0 : 2);
+    }
+
+}
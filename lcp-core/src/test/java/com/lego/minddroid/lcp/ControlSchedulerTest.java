@@ -0,0 +1,139 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the scheduler with simulated time in steps of one millisecond,
+ * the way its thread would: sensor events arrive, due steps are run.
+ */
+public class ControlSchedulerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ControlScheduler scheduler;
+    private int steps;
+
+    @Before
+    public void setUp() {
+        steps = 0;
+        scheduler = new ControlScheduler(new Runnable() {
+            @Override
+            public void run() {
+                steps++;
+            }
+        }, 50);
+    }
+
+    /**
+     * @param sensorPeriod time between two sensor events in milliseconds
+     * @param from the first millisecond with a sensor event, has to be above 0
+     * @param to the last millisecond with a sensor event
+     * @param end the last millisecond simulated
+     */
+    private void simulate(long sensorPeriod, long from, long to, long end) {
+        for (long millis = from; millis <= end; millis++) {
+            long now = millis * MS;
+            if (millis <= to && (millis - from) % sensorPeriod == 0)
+                scheduler.sensorChanged(now);
+
+            long due = scheduler.getDueTime();
+            if (due != 0 && due <= now)
+                scheduler.runStep(now);
+        }
+    }
+
+    @Test
+    public void stepsRunAtFixedRate() {
+        // 50 Hz sensor, first step at the first event, then every 50 ms
+        simulate(20, 20, 1000, 1000);
+
+        assertEquals(20, steps);
+        assertEquals(0, scheduler.getJitter().getMax());
+        // an event waits for the next tick at most
+        assertEquals(20, scheduler.getLatency().getCount());
+        assertTrue(scheduler.getLatency().getMax() <= 50 * MS);
+    }
+
+    @Test
+    public void fastSensorIsCoalesced() {
+        // 1 kHz sensor doesn't run more steps than the interval allows
+        simulate(1, 1, 1000, 1000);
+
+        assertEquals(20, steps);
+        assertEquals(0, scheduler.getJitter().getMax());
+    }
+
+    @Test
+    public void noStepWithoutSensorEvents() {
+        simulate(20, 20, 20, 1000);
+
+        assertEquals(1, steps);
+        assertEquals(0, scheduler.getDueTime());
+    }
+
+    @Test
+    public void eventAfterPauseRunsAtOnce() {
+        simulate(20, 20, 200, 300);
+        int before = steps;
+
+        // off the grid of the ticks laid out before the pause
+        scheduler.sensorChanged(1013 * MS);
+        assertEquals(1013 * MS, scheduler.getDueTime());
+        simulate(20, 1013, 1013, 1013);
+        assertEquals(before + 1, steps);
+        assertEquals(0, scheduler.getJitter().getMax());
+    }
+
+    @Test
+    public void lateStepDoesNotDelayTheFollowingTicks() {
+        scheduler.sensorChanged(10 * MS);
+        scheduler.runStep(10 * MS);
+        scheduler.sensorChanged(20 * MS);
+        assertEquals(60 * MS, scheduler.getDueTime());
+
+        // started 15 ms late
+        scheduler.runStep(75 * MS);
+        scheduler.sensorChanged(80 * MS);
+        assertEquals(110 * MS, scheduler.getDueTime());
+        assertEquals(15 * MS, scheduler.getJitter().getMax());
+    }
+
+    @Test
+    public void newIntervalAppliesFromTheNextTick() {
+        scheduler.sensorChanged(10 * MS);
+        scheduler.runStep(10 * MS);
+        scheduler.setInterval(100);
+        scheduler.sensorChanged(20 * MS);
+        // the tick after the current step was laid out with the old interval
+        assertEquals(60 * MS, scheduler.getDueTime());
+
+        scheduler.runStep(60 * MS);
+        scheduler.sensorChanged(70 * MS);
+        assertEquals(160 * MS, scheduler.getDueTime());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encodes the request and decodes the reply of every command of the table
+ * and compares them with the byte sequences of the Bluetooth Developer Kit.
+ */
+public class LCPCommandsTest {
+
+    private static final class Case {
+        final LCPCommand command;
+        final Object[] requestValues;
+        final byte[] request;
+        final Object[] replyValues;
+        final byte[] reply;
+
+        Case(LCPCommand command, Object[] requestValues, byte[] request, Object[] replyValues, byte[] reply) {
+            this.command = command;
+            this.requestValues = requestValues;
+            this.request = request;
+            this.replyValues = replyValues;
+            this.reply = reply;
+        }
+    }
+
+    private static final Case[] CASES = {
+        // Direct commands
+        new Case(LCPCommands.START_PROGRAM,
+            values("Program.rxe"), bytes("00 00", asciiz("Program.rxe", 20)),
+            values(), bytes("02 00 00")),
+        new Case(LCPCommands.STOP_PROGRAM,
+            values(), bytes("00 01"),
+            values(), bytes("02 01 00")),
+        new Case(LCPCommands.PLAY_SOUND_FILE,
+            values(true, "Woops.rso"), bytes("00 02 01", asciiz("Woops.rso", 20)),
+            values(), bytes("02 02 00")),
+        new Case(LCPCommands.PLAY_TONE,
+            values(440, 500), bytes("00 03 B8 01 F4 01"),
+            values(), bytes("02 03 00")),
+        new Case(LCPCommands.SET_OUTPUT_STATE,
+            values(1, -75, 0x07, 2, -25, 0x20, 360), bytes("00 04 01 B5 07 02 E7 20 68 01 00 00"),
+            values(), bytes("02 04 00")),
+        new Case(LCPCommands.SET_INPUT_MODE,
+            values(0, 0x01, 0x20), bytes("00 05 00 01 20"),
+            values(), bytes("02 05 00")),
+        new Case(LCPCommands.GET_OUTPUT_STATE,
+            values(2), bytes("00 06 02"),
+            values(2, -50, 0x05, 1, 0, 0x20, 720, -1234, 100, -70000),
+            bytes("02 06 00 02 CE 05 01 00 20 D0 02 00 00 2E FB FF FF 64 00 00 00 90 EE FE FF")),
+        new Case(LCPCommands.GET_INPUT_VALUES,
+            values(3), bytes("00 07 03"),
+            values(3, true, false, 0x05, 0x80, 612, 598, 58, -2),
+            bytes("02 07 00 03 01 00 05 80 64 02 56 02 3A 00 FE FF")),
+        new Case(LCPCommands.RESET_SCALED_INPUT_VALUE,
+            values(1), bytes("00 08 01"),
+            values(), bytes("02 08 00")),
+        new Case(LCPCommands.MESSAGE_WRITE,
+            values(1, 4, bytes("61 62 63 00")), bytes("00 09 01 04 61 62 63 00"),
+            values(), bytes("02 09 00")),
+        new Case(LCPCommands.RESET_MOTOR_POSITION,
+            values(2, true), bytes("00 0A 02 01"),
+            values(), bytes("02 0A 00")),
+        new Case(LCPCommands.GET_BATTERY_LEVEL,
+            values(), bytes("00 0B"),
+            values(7850), bytes("02 0B 00 AA 1E")),
+        new Case(LCPCommands.STOP_SOUND_PLAYBACK,
+            values(), bytes("00 0C"),
+            values(), bytes("02 0C 00")),
+        new Case(LCPCommands.KEEP_ALIVE,
+            values(), bytes("00 0D"),
+            values(600000), bytes("02 0D 00 C0 27 09 00")),
+        new Case(LCPCommands.LS_GET_STATUS,
+            values(3), bytes("00 0E 03"),
+            values(8), bytes("02 0E 00 08")),
+        new Case(LCPCommands.LS_WRITE,
+            values(3, 2, 8, bytes("02 42")), bytes("00 0F 03 02 08 02 42"),
+            values(), bytes("02 0F 00")),
+        new Case(LCPCommands.LS_READ,
+            values(3), bytes("00 10 03"),
+            values(4, asciiz("LEGO", 16)), bytes("02 10 00 04", asciiz("LEGO", 16))),
+        new Case(LCPCommands.GET_CURRENT_PROGRAM_NAME,
+            values(), bytes("00 11"),
+            values("Program.rxe"), bytes("02 11 00", asciiz("Program.rxe", 20))),
+        new Case(LCPCommands.MESSAGE_READ,
+            values(10, 0, true), bytes("00 13 0A 00 01"),
+            values(0, 4, asciiz("abc", 59)), bytes("02 13 00 00 04", asciiz("abc", 59))),
+
+        // System commands
+        new Case(LCPCommands.OPEN_READ,
+            values("Woops.rso"), bytes("01 80", asciiz("Woops.rso", 20)),
+            values(0, 1234), bytes("02 80 00 00 D2 04 00 00")),
+        new Case(LCPCommands.OPEN_WRITE,
+            values("Program.rxe", 2048), bytes("01 81", asciiz("Program.rxe", 20), "00 08 00 00"),
+            values(1), bytes("02 81 00 01")),
+        new Case(LCPCommands.READ,
+            values(0, 4), bytes("01 82 00 04 00"),
+            values(0, 4, bytes("01 02 03 04")), bytes("02 82 00 00 04 00 01 02 03 04")),
+        new Case(LCPCommands.WRITE,
+            values(1, bytes("DE AD BE EF")), bytes("01 83 01 DE AD BE EF"),
+            values(1, 4), bytes("02 83 00 01 04 00")),
+        new Case(LCPCommands.CLOSE,
+            values(1), bytes("01 84 01"),
+            values(1), bytes("02 84 00 01")),
+        new Case(LCPCommands.DELETE,
+            values("Program.rxe"), bytes("01 85", asciiz("Program.rxe", 20)),
+            values("Program.rxe"), bytes("02 85 00", asciiz("Program.rxe", 20))),
+        new Case(LCPCommands.FIND_FIRST,
+            values("*.rxe"), bytes("01 86", asciiz("*.rxe", 20)),
+            values(0, "Program.rxe", 1234), bytes("02 86 00 00", asciiz("Program.rxe", 20), "D2 04 00 00")),
+        new Case(LCPCommands.FIND_NEXT,
+            values(0), bytes("01 87 00"),
+            values(0, "Other.rxe", 80000), bytes("02 87 00 00", asciiz("Other.rxe", 20), "80 38 01 00")),
+        new Case(LCPCommands.GET_FIRMWARE_VERSION,
+            values(), bytes("01 88"),
+            values(124, 1, 31, 1), bytes("02 88 00 7C 01 1F 01")),
+        new Case(LCPCommands.OPEN_WRITE_LINEAR,
+            values("Program.rxe", 2048), bytes("01 89", asciiz("Program.rxe", 20), "00 08 00 00"),
+            values(2), bytes("02 89 00 02")),
+        new Case(LCPCommands.OPEN_READ_LINEAR,
+            values("Program.rxe"), bytes("01 8A", asciiz("Program.rxe", 20)),
+            values(0x108000), bytes("02 8A 00 00 80 10 00")),
+        new Case(LCPCommands.OPEN_WRITE_DATA,
+            values("Data.txt", 256), bytes("01 8B", asciiz("Data.txt", 20), "00 01 00 00"),
+            values(3), bytes("02 8B 00 03")),
+        new Case(LCPCommands.OPEN_APPEND_DATA,
+            values("Data.txt"), bytes("01 8C", asciiz("Data.txt", 20)),
+            values(3, 200), bytes("02 8C 00 03 C8 00 00 00")),
+        new Case(LCPCommands.BOOT,
+            values("Let's dance: SAMBA"), bytes("01 97", asciiz("Let's dance: SAMBA", 19)),
+            values("Yes"), bytes("02 97 00", asciiz("Yes", 4))),
+        new Case(LCPCommands.SET_BRICK_NAME,
+            values("MINDdroid"), bytes("01 98", asciiz("MINDdroid", 16)),
+            values(), bytes("02 98 00")),
+        new Case(LCPCommands.GET_DEVICE_INFO,
+            values(), bytes("01 9B"),
+            values("NXT", bytes("00 16 53 0A 0B 0C 00"), 0, 45000),
+            bytes("02 9B 00", asciiz("NXT", 15), "00 16 53 0A 0B 0C 00 00 00 00 00 C8 AF 00 00")),
+        new Case(LCPCommands.DELETE_USER_FLASH,
+            values(), bytes("01 A0"),
+            values(), bytes("02 A0 00")),
+        new Case(LCPCommands.POLL_LENGTH,
+            values(0), bytes("01 A1 00"),
+            values(0, 5), bytes("02 A1 00 00 05")),
+        new Case(LCPCommands.POLL,
+            values(0, 5), bytes("01 A2 00 05"),
+            values(0, 5, bytes("01 02 03 04 05")), bytes("02 A2 00 00 05 01 02 03 04 05")),
+    };
+
+    private static Object[] values(Object... values) {
+        return values;
+    }
+
+    /**
+     * @param parts hex strings like "02 0B 00" and byte arrays, concatenated
+     */
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof byte[]) {
+                byte[] data = (byte[]) part;
+                out.write(data, 0, data.length);
+            }
+            else {
+                for (String hex : ((String) part).split(" "))
+                    out.write(Integer.parseInt(hex, 16));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the ASCII characters filled up with 0 to the size of the field
+     */
+    private static byte[] asciiz(String text, int size) {
+        byte[] field = new byte[size];
+        for (int pos = 0; pos < text.length(); pos++)
+            field[pos] = (byte) text.charAt(pos);
+        return field;
+    }
+
+    private static int write(LCPRequestWriter writer, byte[] buffer, LCPCommand command, Object[] values) {
+        writer.begin(buffer, 0, command, true);
+        for (Object value : values) {
+            if (value instanceof Boolean)
+                writer.putBoolean((Boolean) value);
+            else if (value instanceof String)
+                writer.putString((String) value);
+            else if (value instanceof byte[])
+                writer.putData((byte[]) value, 0, ((byte[]) value).length);
+            else
+                writer.putInt(((Number) value).longValue());
+        }
+        return writer.finish();
+    }
+
+    @Test
+    public void everyCommandHasACase() {
+        Set<LCPCommand> covered = new HashSet<>();
+        for (Case testCase : CASES)
+            assertTrue("twice: " + testCase.command, covered.add(testCase.command));
+
+        assertEquals(new HashSet<>(Arrays.asList(LCPCommands.getCommands())), covered);
+    }
+
+    @Test
+    public void requestsMatchTheSpecification() {
+        LCPRequestWriter writer = new LCPRequestWriter();
+        byte[] buffer = new byte[64];
+        for (Case testCase : CASES) {
+            int length = write(writer, buffer, testCase.command, testCase.requestValues);
+            assertArrayEquals(testCase.command.toString(), testCase.request, Arrays.copyOf(buffer, length));
+            assertTrue(testCase.command.toString(), testCase.command.isValidRequest(buffer, 0, length));
+        }
+    }
+
+    @Test
+    public void repliesMatchTheSpecification() {
+        LCPReplyFields fields = new LCPReplyFields();
+        for (Case testCase : CASES) {
+            String name = testCase.command.toString();
+            assertTrue(name, fields.wrap(testCase.reply, 0, testCase.reply.length));
+            assertEquals(name, testCase.command, fields.getCommandInfo());
+            assertEquals(name, testCase.replyValues.length, testCase.command.getReplyFieldCount());
+
+            for (int index = 0; index < testCase.replyValues.length; index++) {
+                Object value = testCase.replyValues[index];
+                String field = name + " field " + index;
+                if (value instanceof Boolean)
+                    assertEquals(field, value, fields.getBoolean(index));
+                else if (value instanceof String)
+                    assertEquals(field, value, fields.getString(index));
+                else if (value instanceof byte[]) {
+                    int offset = fields.getDataOffset(index);
+                    byte[] data = Arrays.copyOfRange(fields.getBuffer(), offset, offset + fields.getDataLength(index));
+                    assertArrayEquals(field, (byte[]) value, data);
+                }
+                else
+                    assertEquals(field, ((Number) value).longValue(), fields.getInt(index));
+            }
+        }
+    }
+
+    @Test
+    public void requestsWithoutReplyHaveTheirOwnType() {
+        LCPRequestWriter writer = new LCPRequestWriter();
+        byte[] buffer = new byte[8];
+        writer.begin(buffer, 0, LCPCommands.PLAY_TONE, false).putInt(440).putInt(500).finish();
+        assertEquals(LCPMessage.DIRECT_COMMAND_NOREPLY, buffer[0]);
+
+        writer.begin(buffer, 0, LCPCommands.CLOSE, false).putInt(1).finish();
+        assertEquals(LCPMessage.SYSTEM_COMMAND_NOREPLY, buffer[0]);
+    }
+
+    @Test
+    public void motorMessageMatchesTheTable() {
+        LCPRequestWriter writer = new LCPRequestWriter();
+        byte[] buffer = new byte[LCPMessage.MOTOR_MESSAGE_LENGTH];
+        int length = writer.begin(buffer, 0, LCPCommands.SET_OUTPUT_STATE, false)
+            .putInt(1).putInt(-75).putInt(0x07).putInt(LCPMessage.REGULATION_MODE_MOTOR_SYNC)
+            .putInt(-25).putInt(0x20).putInt(0)
+            .finish();
+        assertArrayEquals(LCPMessage.getSyncMotorMessage(1, -75, -25), Arrays.copyOf(buffer, length));
+    }
+}
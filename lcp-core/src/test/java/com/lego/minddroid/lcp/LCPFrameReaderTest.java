@@ -0,0 +1,60 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LCPFrameReaderTest {
+
+    @Test
+    public void severalFramesInOneReadAreSplit() throws IOException {
+        byte[] stream = { 3, 0, 1, 2, 3, 1, 0, 4 };
+        LCPFrameReader reader = new LCPFrameReader(new ByteArrayInputStream(stream));
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reader.readFrame());
+        assertArrayEquals(new byte[] { 4 }, reader.readFrame());
+        assertEquals(2, reader.getFramesRead());
+    }
+
+    @Test
+    public void tooLongMessageIsSkipped() throws IOException {
+        byte[] stream = { 3, 0, 1, 2, 3, 1, 0, 4 };
+        LCPFrameReader reader = new LCPFrameReader(new ByteArrayInputStream(stream));
+        byte[] message = new byte[2];
+
+        try {
+            reader.readFrame(message);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // the reader has to stay in step with the stream
+        }
+
+        assertEquals(1, reader.readFrame(message));
+        assertEquals(4, message[0]);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LCPMessageTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            result[i] = (byte) values[i];
+        return result;
+    }
+
+    @Test
+    public void motorMessageIsSpeedRegulated() {
+        assertArrayEquals(bytes(0x80, 0x04, 0x01, 0x4B, 0x03, 0x01, 0x00, 0x20, 0, 0, 0, 0),
+                LCPMessage.getMotorMessage(1, 75));
+    }
+
+    @Test
+    public void syncMotorMessageIsRegulated() {
+        assertArrayEquals(bytes(0x80, 0x04, 0x00, 0x32, 0x07, 0x02, 0x19, 0x20, 0, 0, 0, 0),
+                LCPMessage.getSyncMotorMessage(0, 50, 25));
+        assertArrayEquals(bytes(0x80, 0x04, 0x01, 0xCE, 0x07, 0x02, 0xE7, 0x20, 0, 0, 0, 0),
+                LCPMessage.getSyncMotorMessage(1, -50, -25));
+    }
+
+    @Test
+    public void stoppedSyncMotorIsIdle() {
+        assertArrayEquals(bytes(0x80, 0x04, 0x02, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+                LCPMessage.getSyncMotorMessage(2, 0, 25));
+    }
+
+    @Test
+    public void encodeSyncMotorMessageWritesAtOffset() {
+        byte[] buffer = new byte[LCPMessage.MOTOR_MESSAGE_LENGTH + 3];
+        assertEquals(LCPMessage.MOTOR_MESSAGE_LENGTH,
+                LCPMessage.encodeSyncMotorMessage(buffer, 3, 1, 100, 100));
+        assertArrayEquals(bytes(0, 0, 0, 0x80, 0x04, 0x01, 0x64, 0x07, 0x02, 0x64, 0x20, 0, 0, 0, 0),
+                buffer);
+    }
+}
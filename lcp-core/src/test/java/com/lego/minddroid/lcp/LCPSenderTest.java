@@ -0,0 +1,199 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LCPSenderTest {
+
+    /**
+     * Lets the first write block until it's released, like a congested link.
+     */
+    private static class SlowOutputStream extends OutputStream {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        private final OutputStream out;
+
+        SlowOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            entered.countDown();
+            try {
+                released.await();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            out.write(b, off, len);
+        }
+    }
+
+    private MemoryTransport transport;
+    private SlowOutputStream slowStream;
+    private LCPFrameWriter writer;
+    private LCPFrameReader brickReader;
+    private final LCPSendQueue queue = new LCPSendQueue(16);
+    private final MotorCommandSlots slots = new MotorCommandSlots();
+    private volatile IOException sendError = null;
+    private LCPSender sender;
+
+    @Before
+    public void setUp() {
+        transport = MemoryTransport.createPair();
+        slowStream = new SlowOutputStream(transport.getOutputStream());
+        writer = new LCPFrameWriter(slowStream);
+        brickReader = new LCPFrameReader(transport.getPeer().getInputStream());
+        sender = new LCPSender("test sender", writer, queue, slots, new LCPSender.Listener() {
+            @Override
+            public void sendFailed(IOException e) {
+                sendError = e;
+            }
+
+            @Override
+            public void disconnectRequested() {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        slowStream.released.countDown();
+        sender.terminate();
+        transport.close();
+        sender.join(1000);
+    }
+
+    @Test(timeout = 5000)
+    public void enqueueDoesNotWaitForBlockedWrite() throws Exception {
+        slots.put(0, 10);
+        queue.offer(LCPMessage.getBeepMessage(440, 100));
+        sender.start();
+        assertTrue(slowStream.entered.await(1, TimeUnit.SECONDS));
+
+        // the write is blocked until released, all of this has to return anyway
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(LCPMessage.getBeepMessage(1000 + i, 100)));
+            sender.wakeup();
+        }
+        for (int speed = 1; speed <= 100; speed++) {
+            slots.put(0, -speed);
+            slots.putSync(speed, 0);
+            sender.wakeup();
+        }
+
+        assertTrue(sender.isWriting());
+        assertEquals(10, queue.size());
+        // one slot for motor 0 and one for the drive motors
+        assertEquals(2, slots.getPendingCount());
+        assertEquals(2 * 99, slots.getSupersededCommands());
+    }
+
+    @Test(timeout = 5000)
+    public void onlyLatestSpeedIsWrittenAfterBlockedWrite() throws Exception {
+        slots.put(0, 10);
+        queue.offer(LCPMessage.getBeepMessage(440, 100));
+        sender.start();
+        assertTrue(slowStream.entered.await(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(LCPMessage.getBeepMessage(1000 + i, 100));
+            sender.wakeup();
+        }
+        for (int speed = 1; speed <= 100; speed++) {
+            slots.put(0, -speed);
+            slots.putSync(speed, 0);
+            sender.wakeup();
+        }
+        slowStream.released.countDown();
+
+        // the blocked write
+        assertArrayEquals(LCPMessage.getMotorMessage(0, 10), brickReader.readFrame());
+        assertArrayEquals(LCPMessage.getBeepMessage(440, 100), brickReader.readFrame());
+        // the latest speeds first, then the queued messages in order
+        assertArrayEquals(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_1, 100, 0), brickReader.readFrame());
+        assertArrayEquals(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_2, 100, 0), brickReader.readFrame());
+        assertArrayEquals(LCPMessage.getMotorMessage(0, -100), brickReader.readFrame());
+        for (int i = 0; i < 10; i++)
+            assertArrayEquals(LCPMessage.getBeepMessage(1000 + i, 100), brickReader.readFrame());
+
+        assertEquals(15, writer.getFramesWritten());
+        assertNull(sendError);
+    }
+
+    @Test(timeout = 5000)
+    public void stopIsCarriedOutDespiteTerminate() throws Exception {
+        slowStream.released.countDown();
+        slots.put(0, 50);
+        queue.offer(LCPMessage.getBeepMessage(440, 100));
+        sender.requestStop();
+        sender.terminate();
+        sender.start();
+        sender.join();
+
+        // the commands not sent yet are dropped, all motors get speed 0
+        for (int motor = 0; motor < slots.getPorts(); motor++)
+            assertArrayEquals(LCPMessage.getMotorMessage(motor, 0), brickReader.readFrame());
+        assertEquals(slots.getPorts(), writer.getFramesWritten());
+    }
+
+    @Test(timeout = 5000)
+    public void otherMessagesDoNotDropTheQueuedSample() throws Exception {
+        slowStream.released.countDown();
+        ControlLatency latency = new ControlLatency();
+        latency.sensorChanged(System.nanoTime());
+        latency.controlUpdated(System.nanoTime());
+        sender.setControlLatency(latency);
+        sender.start();
+
+        // a pass writing only a KEEP_ALIVE between queueing and filling the slot
+        latency.commandQueued(System.nanoTime());
+        sender.requestKeepAlive();
+        assertArrayEquals(LCPMessage.getKeepAliveMessage(), brickReader.readFrame());
+        slots.put(0, 10);
+        sender.wakeup();
+        assertArrayEquals(LCPMessage.getMotorMessage(0, 10), brickReader.readFrame());
+
+        while (latency.getHistogram(ControlLatency.SENDER).getCount() == 0)
+            Thread.sleep(1);
+        assertEquals(1, latency.getHistogram(ControlLatency.TOTAL).getCount());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *   Copyright 2010, 2011, 2012 Guenther Hoelzl, Shawn Brown
+ *
+ *   This file is part of MINDdroid.
+ *
+ *   MINDdroid is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   MINDdroid is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with MINDdroid.  If not, see <http://www.gnu.org/licenses/>.
+**/
+
+package com.lego.minddroid.lcp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedBrickTest {
+
+    private static final int RUN_TIME = 300;
+
+    private SimulatedBrick brick;
+    private final byte[] reply = new byte[LCPFrameReader.MAX_FRAME_LENGTH];
+
+    @Before
+    public void setUp() {
+        brick = new SimulatedBrick(MemoryTransport.createPair().getPeer());
+    }
+
+    private void send(byte[] message, int mode) {
+        message[4] = (byte) mode;
+        brick.process(message, message.length, reply);
+    }
+
+    @Test
+    public void regulatedSyncAppliesTurnRatio() throws InterruptedException {
+        send(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_1, 100, 50), 0x07);
+        send(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_2, 100, 50), 0x07);
+        Thread.sleep(RUN_TIME);
+
+        long faster = brick.getRotationCount(MotorCommandSlots.SYNC_MOTOR_1);
+        assertTrue("rotation " + faster, faster > 100);
+        // a turn ratio of 50 stops the higher port
+        assertEquals(0, brick.getRotationCount(MotorCommandSlots.SYNC_MOTOR_2), faster / 20);
+    }
+
+    @Test
+    public void unregulatedSyncIgnoresTurnRatio() throws InterruptedException {
+        send(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_1, 100, 50), 0x03);
+        send(LCPMessage.getSyncMotorMessage(MotorCommandSlots.SYNC_MOTOR_2, 100, 50), 0x03);
+        Thread.sleep(RUN_TIME);
+
+        long first = brick.getRotationCount(MotorCommandSlots.SYNC_MOTOR_1);
+        assertTrue("rotation " + first, first > 100);
+        assertEquals(first, brick.getRotationCount(MotorCommandSlots.SYNC_MOTOR_2), first / 20);
+    }
+
+    @Test
+    public void speedRegulationNeedsRegulatedMode() throws InterruptedException {
+        send(LCPMessage.getMotorMessage(0, 100), 0x03);
+        send(LCPMessage.getMotorMessage(1, 100), 0x05);
+        Thread.sleep(RUN_TIME);
+
+        long unregulated = brick.getRotationCount(0);
+        long regulated = brick.getRotationCount(1);
+        assertTrue(unregulated + " vs. " + regulated, unregulated < regulated * 0.95);
+    }
+}